@@ -8,6 +8,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.greenrobot.eventbus.Subscribe;
+
 import uk.org.ngo.squeezer.itemlist.dialog.ViewDialog;
 import uk.org.ngo.squeezer.service.ConnectionState;
 import uk.org.ngo.squeezer.service.ISqueezeService;
@@ -199,6 +201,7 @@ public class SqueezeServiceTest extends ServiceTestCase<SqueezeService> {
                 ConnectionState.LOGIN_FAILED), mActualConnectionStates);
     }
 
+    @Subscribe
     public void onEvent(ConnectionChanged event) {
         mActualConnectionStates.add(event.connectionState);
 
@@ -215,6 +218,7 @@ public class SqueezeServiceTest extends ServiceTestCase<SqueezeService> {
         }
     }
 
+    @Subscribe
     public void onEvent(HandshakeComplete event) {
         mLastHandshakeCompleteEvent = event;
         synchronized (mLockHandshakeComplete) {
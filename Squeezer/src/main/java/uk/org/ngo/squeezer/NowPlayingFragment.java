@@ -28,7 +28,10 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -69,6 +72,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.dialog.AboutDialog;
 import uk.org.ngo.squeezer.dialog.EnableWifiDialog;
 import uk.org.ngo.squeezer.framework.BaseActivity;
@@ -94,13 +100,9 @@ import uk.org.ngo.squeezer.service.event.ConnectionChanged;
 import uk.org.ngo.squeezer.service.event.HandshakeComplete;
 import uk.org.ngo.squeezer.service.event.HomeMenuEvent;
 import uk.org.ngo.squeezer.service.event.MusicChanged;
-import uk.org.ngo.squeezer.service.event.PlayStatusChanged;
+import uk.org.ngo.squeezer.service.event.PlayerChanges;
 import uk.org.ngo.squeezer.service.event.PlayersChanged;
-import uk.org.ngo.squeezer.service.event.PowerStatusChanged;
 import uk.org.ngo.squeezer.service.event.RegisterSqueezeNetwork;
-import uk.org.ngo.squeezer.service.event.RepeatStatusChanged;
-import uk.org.ngo.squeezer.service.event.ShuffleStatusChanged;
-import uk.org.ngo.squeezer.service.event.SongTimeChanged;
 import uk.org.ngo.squeezer.util.ImageFetcher;
 import uk.org.ngo.squeezer.widget.OnSwipeListener;
 
@@ -171,6 +173,30 @@ public class NowPlayingFragment extends Fragment {
     // Updating the seekbar
     private boolean updateSeekBar = true;
 
+    private final Handler uiThreadHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Shows the position in the song from the playback clock of the active player, and runs
+     * again when the next second of the song starts, while the song is playing.
+     */
+    private final Runnable timeUpdater = new Runnable() {
+        @Override
+        public void run() {
+            uiThreadHandler.removeCallbacks(this);
+            Player player = (mService != null ? mService.getActivePlayer() : null);
+            if (player == null) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            double position = player.getTrackPosition(now);
+            updateTimeDisplayTo((int) position, player.getPlayerState().getCurrentSongDuration());
+            if (player.getPlayerState().isPlaying()) {
+                uiThreadHandler.postDelayed(this, 1000 - (long) (position * 1000) % 1000);
+            }
+        }
+    };
+
     private Button volumeButton;
 
     private Button playlistButton;
@@ -572,7 +598,7 @@ public class NowPlayingFragment extends Fragment {
      */
     private void maybeRegisterCallbacks(@NonNull ISqueezeService service) {
         if (!mRegisteredCallbacks) {
-            service.getEventBus().registerSticky(this);
+            service.getEventBus().register(this);
 
             mRegisteredCallbacks = true;
         }
@@ -612,6 +638,7 @@ public class NowPlayingFragment extends Fragment {
         updateShuffleStatus(playerState.getShuffleStatus());
         updateRepeatStatus(playerState.getRepeatStatus());
         updatePlayerMenuItems();
+        timeUpdater.run();
     }
 
     /**
@@ -653,6 +680,11 @@ public class NowPlayingFragment extends Fragment {
                 totalTime.setText(Util.formatElapsedTime(playerState.getCurrentSongDuration()));
 
                 mService.pluginItems(song.moreAction, new IServiceItemListCallback<JiveItem>() {
+                    @Override
+                    public Class<JiveItem> getDataType() {
+                        return JiveItem.class;
+                    }
+
                     @Override
                     public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
                         albumItem = findBrowseAction(items, "album_id");
@@ -743,6 +775,7 @@ public class NowPlayingFragment extends Fragment {
             mService.getEventBus().unregister(this);
             mRegisteredCallbacks = false;
         }
+        uiThreadHandler.removeCallbacks(timeUpdater);
 
         pluginViewDelegate.resetContextMenu();
 
@@ -921,6 +954,7 @@ public class NowPlayingFragment extends Fragment {
 
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(ConnectionChanged event) {
         Log.d(TAG, "ConnectionChanged: " + event);
 
@@ -961,8 +995,10 @@ public class NowPlayingFragment extends Fragment {
         }
 
         // Any other event means that a connection is in progress or completed.
-        // Show the the dialog if appropriate.
-        if (event.connectionState != ConnectionState.CONNECTION_COMPLETED) {
+        // Show the the dialog if appropriate. Not if the last session has been restored, then
+        // it is shown while connecting.
+        if (event.connectionState != ConnectionState.CONNECTION_COMPLETED &&
+                (mService == null || mService.getActivePlayer() == null)) {
             showConnectingDialog();
         }
 
@@ -996,6 +1032,7 @@ public class NowPlayingFragment extends Fragment {
      }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         // Event might arrive before this fragment has connected to the service (e.g.,
         // the activity connected before this fragment did).
@@ -1031,38 +1068,54 @@ public class NowPlayingFragment extends Fragment {
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(@SuppressWarnings("unused") RegisterSqueezeNetwork event) {
         // We're connected but the controller needs to register with the server
         JiveItemListActivity.register(mActivity);
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(MusicChanged event) {
         if (event.player.equals(mService.getActivePlayer())) {
             updateSongInfo(event.playerState);
+            timeUpdater.run();
         }
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(PlayersChanged event) {
         updatePlayerDropDown(event.players.values(), mService.getActivePlayer());
     }
 
+    /** The song is updated by {@link MusicChanged}, which is sticky. */
     @MainThread
-    public void onEventMainThread(PlayStatusChanged event) {
-        if (event.player.equals(mService.getActivePlayer())) {
-            updatePlayPauseIcon(event.playStatus);
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEventMainThread(PlayerChanges event) {
+        if (!event.player.equals(mService.getActivePlayer())) {
+            return;
         }
-    }
-
-    @MainThread
-    public void onEventMainThread(PowerStatusChanged event) {
-        if (event.player.equals(mService.getActivePlayer())) {
+        PlayerState playerState = event.player.getPlayerState();
+        if (event.has(PlayerChanges.PLAY_STATUS)) {
+            updatePlayPauseIcon(playerState.getPlayStatus());
+        }
+        if (event.has(PlayerChanges.POWER)) {
             updatePlayerMenuItems();
         }
+        if (event.has(PlayerChanges.REPEAT)) {
+            updateRepeatStatus(playerState.getRepeatStatus());
+        }
+        if (event.has(PlayerChanges.SHUFFLE)) {
+            updateShuffleStatus(playerState.getShuffleStatus());
+        }
+        if (event.has(PlayerChanges.PLAY_STATUS | PlayerChanges.TIME)) {
+            timeUpdater.run();
+        }
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HomeMenuEvent event) {
         globalSearch = null;
         for (JiveItem menuItem : event.menuItems) {
@@ -1075,25 +1128,4 @@ public class NowPlayingFragment extends Fragment {
             menuItemSearch.setVisible(globalSearch != null);
         }
     }
-
-    @MainThread
-    public void onEventMainThread(RepeatStatusChanged event) {
-        if (event.player.equals(mService.getActivePlayer())) {
-            updateRepeatStatus(event.repeatStatus);
-        }
-    }
-
-    @MainThread
-    public void onEventMainThread(ShuffleStatusChanged event) {
-        if (event.player.equals(mService.getActivePlayer())) {
-            updateShuffleStatus(event.shuffleStatus);
-        }
-    }
-
-    @MainThread
-    public void onEventMainThread(SongTimeChanged event) {
-        if (event.player.equals(mService.getActivePlayer())) {
-            updateTimeDisplayTo(event.currentPosition, event.duration);
-        }
-    }
 }
@@ -118,6 +118,9 @@ public final class Preferences {
     // Download confirmation
     static final String KEY_CLEAR_PLAYLIST_CONFIRMATION = "squeezer.clear.current_playlist.confirmation";
 
+    // Keep a local copy of library views
+    public static final String KEY_LIBRARY_MIRROR = "squeezer.library.mirror";
+
     // Download enabled
     static final String KEY_DOWNLOAD_ENABLED = "squeezer.download.enabled";
 
@@ -366,6 +369,10 @@ public final class Preferences {
         sharedPreferences.edit().putBoolean(Preferences.KEY_CLEAR_PLAYLIST_CONFIRMATION, b).apply();
     }
 
+    public boolean isLibraryMirror() {
+        return sharedPreferences.getBoolean(KEY_LIBRARY_MIRROR, false);
+    }
+
     public boolean isAutoConnect() {
         return sharedPreferences.getBoolean(KEY_AUTO_CONNECT, true);
     }
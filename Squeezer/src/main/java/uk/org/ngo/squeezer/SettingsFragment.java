@@ -173,6 +173,9 @@ public class SettingsFragment  extends PreferenceFragmentCompat implements
 
         final SwitchPreferenceCompat clearPlaylistConfirmation = findPreference(Preferences.KEY_CLEAR_PLAYLIST_CONFIRMATION);
         clearPlaylistConfirmation.setChecked(preferences.isClearPlaylistConfirmation());
+
+        final SwitchPreferenceCompat libraryMirror = findPreference(Preferences.KEY_LIBRARY_MIRROR);
+        libraryMirror.setChecked(preferences.isLibraryMirror());
     }
 
     private <E extends Enum<E> & EnumWithText> void fillEnumPreference(ListPreference listPreference, Class<E> actionTypes, E defaultValue) {
@@ -45,6 +45,9 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.dialog.AlertEventDialog;
 import uk.org.ngo.squeezer.dialog.DownloadDialog;
@@ -286,7 +289,7 @@ public abstract class BaseActivity extends AppCompatActivity {
      */
     private void maybeRegisterOnEventBus(@NonNull ISqueezeService service) {
         if (!mRegisteredOnEventBus) {
-            service.getEventBus().registerSticky(this);
+            service.getEventBus().register(this);
             mRegisteredOnEventBus = true;
         }
     }
@@ -359,6 +362,7 @@ public abstract class BaseActivity extends AppCompatActivity {
         return true;
     }
 
+    @Subscribe
     public void onEvent(PlayerVolume event) {
         if (!mIgnoreVolumeChange && mVolumePanel != null && event.player == mService.getActivePlayer()) {
             mVolumePanel.postVolumeChanged(event.volume, event.player.getName());
@@ -386,6 +390,7 @@ public abstract class BaseActivity extends AppCompatActivity {
         mIgnoreVolumeChange = ignoreVolumeChange;
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(DisplayEvent displayEvent) {
         boolean showMe = true;
         DisplayMessage display = displayEvent.message;
@@ -432,6 +437,7 @@ public abstract class BaseActivity extends AppCompatActivity {
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(AlertEvent alert) {
         AlertEventDialog.show(getSupportFragmentManager(), alert.message.title, alert.message.text);
     }
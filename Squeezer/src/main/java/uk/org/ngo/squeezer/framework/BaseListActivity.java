@@ -26,6 +26,9 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
 import uk.org.ngo.squeezer.model.Item;
 import uk.org.ngo.squeezer.service.event.HandshakeComplete;
@@ -70,6 +73,7 @@ public abstract class BaseListActivity<VH extends ItemViewHolder<T>, T extends I
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         super.onEventMainThread(event);
         if (!needPlayer() || getService().getActivePlayer() != null) {
@@ -153,6 +157,11 @@ public abstract class BaseListActivity<VH extends ItemViewHolder<T>, T extends I
         super.onItemsReceived(count, start, items, dataType);
     }
 
+    @Override
+    public void onItemsFailed(int start, Exception cause) {
+        super.onItemsFailed(start, cause);
+    }
+
     @Override
     public Object getClient() {
         return this;
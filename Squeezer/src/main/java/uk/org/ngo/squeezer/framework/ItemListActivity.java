@@ -34,6 +34,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.itemlist.dialog.ArtworkListLayout;
@@ -267,6 +270,7 @@ public abstract class ItemListActivity extends BaseActivity {
      * Update the UI with the player change
      */
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(ActivePlayerChanged event) {
         Log.i(TAG, "ActivePlayerChanged: " + event.player);
         supportInvalidateOptionsMenu();
@@ -283,6 +287,7 @@ public abstract class ItemListActivity extends BaseActivity {
      * Orders any pages requested before the handshake completed.
      */
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         // Order any pages that were requested before the handshake complete.
         while (!mOrderedPagesBeforeHandshake.empty()) {
@@ -334,13 +339,15 @@ public abstract class ItemListActivity extends BaseActivity {
 
         // If this doesn't add any items, then don't register the page as received
         if (start < count && size != 0) {
-            // Because we might receive a page in chunks, we test if this is the end of a page
-            // before we register the page as received.
-            if (((start + size) % mPageSize == 0) || (start + size == count)) {
-                // Add this page of data to mReceivedPages and remove from mOrderedPages.
-                int pageStart = (start / mPageSize) * mPageSize;
-                mReceivedPages.add(pageStart);
-                mOrderedPages.remove(pageStart);
+            // The service chooses the size of each chunk, so a chunk may end in the middle of a
+            // page, or span several pages. A page is received when its last item is received.
+            int end = start + size;
+            for (int pageStart = (start / mPageSize) * mPageSize; pageStart < end; pageStart += mPageSize) {
+                if (pageStart + mPageSize <= end || end == count) {
+                    // Add this page of data to mReceivedPages and remove from mOrderedPages.
+                    mReceivedPages.add(pageStart);
+                    mOrderedPages.remove(pageStart);
+                }
             }
         }
 
@@ -350,6 +357,18 @@ public abstract class ItemListActivity extends BaseActivity {
         });
     }
 
+    /**
+     * Tracks requests which failed, so the page is ordered again the next time it is visible.
+     *
+     * @param start The start position of the failed request.
+     * @param cause Why the request failed.
+     */
+    @CallSuper
+    protected void onItemsFailed(int start, Exception cause) {
+        Log.w(TAG, "onItemsFailed(" + start + "): " + cause);
+        mOrderedPages.remove((start / mPageSize) * mPageSize);
+    }
+
     /**
      * Empties the variables that track which pages have been requested, and orders page 0.
      */
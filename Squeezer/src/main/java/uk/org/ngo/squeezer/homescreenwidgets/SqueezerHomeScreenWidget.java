@@ -13,6 +13,8 @@ import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
+import org.greenrobot.eventbus.Subscribe;
+
 import uk.org.ngo.squeezer.service.ISqueezeService;
 import uk.org.ngo.squeezer.service.SqueezeService;
 import uk.org.ngo.squeezer.service.event.PlayersChanged;
@@ -49,17 +51,7 @@ public class SqueezerHomeScreenWidget extends AppWidgetProvider {
                     final ISqueezeService squeezeService = (ISqueezeService) service1;
 
                     // Wait for the PlayersChanged event
-                    squeezeService.getEventBus().registerSticky(new Object() {
-                        public void onEvent(PlayersChanged event) {
-                            squeezeService.getEventBus().unregister(this);
-                            Log.i(SqueezerHomeScreenWidget.TAG, "Players ready, perform action");
-                            uiThreadHandler.post(() -> {
-                                showToastExceptionIfExists(context, runHandlerAndCatchException(handler, squeezeService));
-                                // Handler was called successfully; service no longer needed
-                                context.unbindService(serviceConnection);
-                            });
-                        }
-                    });
+                    squeezeService.getEventBus().register(new PlayersReady(context, handler, squeezeService, serviceConnection));
 
                     // Auto connect if necessary
                     if (!squeezeService.isConnected()) {
@@ -78,6 +70,35 @@ public class SqueezerHomeScreenWidget extends AppWidgetProvider {
             Log.e(SqueezerHomeScreenWidget.TAG, "Squeezer service not bound");
     }
 
+    /**
+     * Runs the handler once the players are known, then unbinds the service. It is a public
+     * class, so it is covered by the generated subscriber index.
+     */
+    public class PlayersReady {
+        private final Context context;
+        private final ServiceHandler handler;
+        private final ISqueezeService squeezeService;
+        private final ServiceConnection serviceConnection;
+
+        private PlayersReady(Context context, ServiceHandler handler, ISqueezeService squeezeService, ServiceConnection serviceConnection) {
+            this.context = context;
+            this.handler = handler;
+            this.squeezeService = squeezeService;
+            this.serviceConnection = serviceConnection;
+        }
+
+        @Subscribe(sticky = true)
+        public void onEvent(@SuppressWarnings("unused") PlayersChanged event) {
+            squeezeService.getEventBus().unregister(this);
+            Log.i(SqueezerHomeScreenWidget.TAG, "Players ready, perform action");
+            uiThreadHandler.post(() -> {
+                showToastExceptionIfExists(context, runHandlerAndCatchException(handler, squeezeService));
+                // Handler was called successfully; service no longer needed
+                context.unbindService(serviceConnection);
+            });
+        }
+    }
+
     protected void showToastExceptionIfExists(Context context, @Nullable Exception possibleException) {
         if (possibleException != null) {
             Toast.makeText(context, possibleException.getMessage(), Toast.LENGTH_LONG).show();
@@ -19,6 +19,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.framework.BaseActivity;
 import uk.org.ngo.squeezer.itemlist.PlayerBaseView;
@@ -108,11 +111,13 @@ public class SqueezerRemoteControlPlayerSelectActivity extends BaseActivity {
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         updatePlayerList();
     }
 
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(PlayerStateChanged event) {
         updatePlayerList();
     }
@@ -38,6 +38,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.framework.ItemAdapter;
 import uk.org.ngo.squeezer.itemlist.dialog.AlarmSettingsDialog;
@@ -118,6 +121,11 @@ public class AlarmsActivity extends BaseListActivity<AlarmView, Alarm> implement
         return R.layout.item_list_player_alarms;
     }
 
+    @Override
+    public Class<Alarm> getDataType() {
+        return Alarm.class;
+    }
+
     @Override
     protected ItemAdapter<AlarmView, Alarm> createItemListAdapter() {
         return new AlarmsAdapter(this);
@@ -158,6 +166,11 @@ public class AlarmsActivity extends BaseListActivity<AlarmView, Alarm> implement
     private final IServiceItemListCallback<AlarmPlaylist> alarmPlaylistsCallback = new IServiceItemListCallback<AlarmPlaylist>() {
         private final List<AlarmPlaylist> alarmPlaylists = new ArrayList<>();
 
+        @Override
+        public Class<AlarmPlaylist> getDataType() {
+            return AlarmPlaylist.class;
+        }
+
         @Override
         public void onItemsReceived(final int count, final int start, Map<String, Object> parameters, final List<AlarmPlaylist> items, Class<AlarmPlaylist> dataType) {
             runOnUiThread(() -> {
@@ -203,6 +216,7 @@ public class AlarmsActivity extends BaseListActivity<AlarmView, Alarm> implement
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(ActivePlayerChanged event) {
         super.onEventMainThread(event);
         mActivePlayer = event.player;
@@ -34,6 +34,9 @@ import androidx.core.view.GestureDetectorCompat;
 
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.dialog.DownloadDialog;
@@ -201,6 +204,7 @@ public class CurrentPlaylistActivity extends JiveItemListActivity {
         return getService().getCurrentPlaylist();
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(MusicChanged event) {
         if (getService() == null) {
             return;
@@ -213,6 +217,7 @@ public class CurrentPlaylistActivity extends JiveItemListActivity {
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(PlaylistChanged event) {
         if (getService() == null) {
             return;
@@ -28,6 +28,9 @@ import androidx.preference.PreferenceManager;
 import androidx.annotation.MainThread;
 import androidx.appcompat.app.ActionBar;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.dialog.ChangeLogDialog;
@@ -62,6 +65,7 @@ public class HomeActivity extends HomeMenuActivity {
     }
 
     @MainThread
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         super.onEventMainThread(event);
 
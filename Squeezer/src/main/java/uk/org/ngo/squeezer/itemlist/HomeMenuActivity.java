@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+import org.greenrobot.eventbus.Subscribe;
+
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.model.JiveItem;
 import uk.org.ngo.squeezer.model.Window;
@@ -50,6 +52,7 @@ public class HomeMenuActivity extends JiveItemListActivity {
         new Preferences(this).setHomeMenuLayout(listLayout);
     }
 
+    @Subscribe(sticky = true)
     public void onEvent(HomeMenuEvent event) {
         runOnUiThread(new Runnable() {
             @Override
@@ -21,6 +21,23 @@ import java.util.Map;
 import uk.org.ngo.squeezer.service.ServiceCallback;
 
 public interface IServiceItemListCallback<T> extends ServiceCallback {
+    /**
+     * @return The type of item this callback receives, used to select how items are created from
+     *     the server response.
+     */
+    Class<T> getDataType();
+
     void onItemsReceived(int count, int start, Map<String, Object> parameters, List<T> items, Class<T> dataType);
+
+    /**
+     * Called instead of {@link #onItemsReceived(int, int, Map, List, Class)} if no response will
+     * be received, because the request timed out, too many requests were outstanding, or the
+     * connection to the server was lost.
+     *
+     * @param start The start position of the failed request.
+     * @param cause Why the request failed.
+     */
+    default void onItemsFailed(int start, Exception cause) {
+    }
 }
 
@@ -34,7 +34,9 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -50,6 +52,9 @@ import com.google.android.material.textfield.TextInputLayout;
 import java.util.List;
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.NowPlayingActivity;
 import uk.org.ngo.squeezer.Preferences;
 import uk.org.ngo.squeezer.R;
@@ -182,6 +187,30 @@ public class JiveItemListActivity extends BaseListActivity<JiveItemView, JiveIte
                     clearAndReOrderItems(inputText.getText().toString());
                 }
             });
+
+            if (action.getInputType() == Action.InputType.SEARCH) {
+                // Search as you type, if the results are read from the local copy of the library
+                inputText.addTextChangedListener(new TextWatcher() {
+                    @Override
+                    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                    }
+
+                    @Override
+                    public void onTextChanged(CharSequence s, int start, int before, int count) {
+                    }
+
+                    @Override
+                    public void afterTextChanged(Editable s) {
+                        ISqueezeService service = getService();
+                        String input = s.toString();
+                        if (service != null && !TextUtils.isEmpty(input) && service.isMirrored(action, input)) {
+                            // Drop the results for the previous input
+                            service.cancelItemListRequests(JiveItemListActivity.this);
+                            clearAndReOrderItems(input);
+                        }
+                    }
+                });
+            }
         }
     }
 
@@ -330,6 +359,7 @@ public class JiveItemListActivity extends BaseListActivity<JiveItemView, JiveIte
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         super.onEventMainThread(event);
         if (parent != null && parent.hasSubItems()) {
@@ -337,6 +367,11 @@ public class JiveItemListActivity extends BaseListActivity<JiveItemView, JiveIte
         }
     }
 
+    @Override
+    public Class<JiveItem> getDataType() {
+        return JiveItem.class;
+    }
+
     @Override
     public void onItemsReceived(int count, int start, final Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
         if (parameters.containsKey("goNow")) {
@@ -195,6 +195,11 @@ public class JiveItemViewLogic implements IServiceItemListCallback<JiveItem>, Po
         return activity;
     }
 
+    @Override
+    public Class<JiveItem> getDataType() {
+        return JiveItem.class;
+    }
+
     @Override
     public void onItemsReceived(int count, int start, final Map<String, Object> parameters, final List<JiveItem> items, Class<JiveItem> dataType) {
         activity.runOnUiThread(() -> {
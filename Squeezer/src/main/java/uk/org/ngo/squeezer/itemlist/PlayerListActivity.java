@@ -31,6 +31,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+
 import uk.org.ngo.squeezer.framework.ItemListActivity;
 import uk.org.ngo.squeezer.itemlist.dialog.DefeatDestructiveTouchToPlayDialog;
 import uk.org.ngo.squeezer.itemlist.dialog.PlayTrackAlbumDialog;
@@ -88,6 +91,7 @@ public class PlayerListActivity extends ItemListActivity implements
 
 
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(PlayerVolume event) {
         if (mTrackingTouch != event.player) {
             adapter.notifyItemChanged(event.player);
@@ -217,11 +221,13 @@ public class PlayerListActivity extends ItemListActivity implements
         // initially connected to the server.
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
     public void onEventMainThread(HandshakeComplete event) {
         super.onEventMainThread(event);
         updateAndExpandPlayerList();
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
     public void onEventMainThread(PlayerStateChanged event) {
         if (mTrackingTouch == null) {
             updateAndExpandPlayerList();
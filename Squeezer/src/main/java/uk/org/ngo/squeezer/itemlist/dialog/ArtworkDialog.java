@@ -65,6 +65,11 @@ public class ArtworkDialog extends DialogFragment implements IServiceItemListCal
         return dialog;
     }
 
+    @Override
+    public Class<JiveItem> getDataType() {
+        return JiveItem.class;
+    }
+
     @Override
     public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
         Uri artworkId = Util.getImageUrl(parameters, parameters.containsKey("artworkId") ? "artworkId" : "artworkUrl");
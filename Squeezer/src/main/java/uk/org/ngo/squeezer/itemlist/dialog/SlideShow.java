@@ -100,6 +100,11 @@ public class SlideShow extends DialogFragment implements IServiceItemListCallbac
         handler.removeCallbacks(nextSlideTask);
     }
 
+    @Override
+    public Class<JiveItem> getDataType() {
+        return JiveItem.class;
+    }
+
     @Override
     public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
         Object[] item_data = (Object[]) parameters.get("loop_loop");
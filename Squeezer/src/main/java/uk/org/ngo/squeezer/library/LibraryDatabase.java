@@ -0,0 +1,392 @@
+package uk.org.ngo.squeezer.library;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.ngo.squeezer.Util;
+
+/**
+ * Local copy of library views, f.e. all artists or all albums.
+ * <p>
+ * Each view is the response to a browse command, stored as the records of the server response
+ * by their position in the list, so it can be paged like the server. Records are stored as JSON,
+ * in the form they are received from the server.
+ * <p>
+ * The text of the items is indexed for full-text search, see {@link #search(View, String, int, int)}.
+ * <p>
+ * Access the database from a single background thread.
+ */
+public class LibraryDatabase {
+    private static class LIBRARY_DATABASE {
+        private static final String NAME = "library";
+        private static final int VERSION = 2;
+
+        private static class VIEW {
+            private static final String TABLE = "view";
+
+            private static class COLUMNS {
+                private static final String ID = "_id";
+                private static final String KEY = "key";
+                private static final String PLAYER_ID = "player_id";
+                private static final String CMD = "cmd";
+                private static final String PARAMS = "params";
+                private static final String BASE = "base";
+                private static final String COUNT = "count";
+                private static final String LAST_SCAN = "last_scan";
+            }
+        }
+
+        private static class ITEM {
+            private static final String TABLE = "item";
+
+            private static class COLUMNS {
+                private static final String ID = "_id";
+                private static final String VIEW_ID = "view_id";
+                private static final String POSITION = "position";
+                private static final String TEXT = "text";
+                private static final String RECORD = "record";
+            }
+        }
+
+        /** Full-text index of the text of items. The docid is the id of the item. */
+        private static class ITEM_FTS {
+            private static final String TABLE = "item_fts";
+
+            private static class COLUMNS {
+                private static final String DOCID = "docid";
+                private static final String TEXT = "text";
+            }
+        }
+    }
+
+    private final OpenHelper openHelper;
+
+    public LibraryDatabase(Context context) {
+        openHelper = OpenHelper.getInstance(context);
+    }
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+
+        private static final Object mInstanceLock = new Object();
+        private static OpenHelper mInstance;
+
+        private OpenHelper(Context context) {
+            super(context, LIBRARY_DATABASE.NAME, null, LIBRARY_DATABASE.VERSION);
+        }
+
+        public static OpenHelper getInstance(Context context) {
+            if (mInstance == null) {
+                synchronized (mInstanceLock) {
+                    if (mInstance == null) {
+                        mInstance = new OpenHelper(context);
+                    }
+                }
+            }
+            return mInstance;
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL("CREATE TABLE " + LIBRARY_DATABASE.VIEW.TABLE + "(" +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.ID + " INTEGER PRIMARY KEY, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.KEY + " TEXT UNIQUE NOT NULL, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.PLAYER_ID + " TEXT, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.CMD + " TEXT, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.PARAMS + " TEXT, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.BASE + " TEXT, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.COUNT + " INTEGER DEFAULT -1, " +
+                    LIBRARY_DATABASE.VIEW.COLUMNS.LAST_SCAN + " TEXT)");
+            sqLiteDatabase.execSQL("CREATE TABLE " + LIBRARY_DATABASE.ITEM.TABLE + "(" +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.ID + " INTEGER PRIMARY KEY, " +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + " INTEGER, " +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + " INTEGER, " +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.TEXT + " TEXT, " +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.RECORD + " TEXT, " +
+                    "UNIQUE (" + LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + ", " + LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + "))");
+            // The unicode61 tokenizer folds case and diacritics of all scripts, the default
+            // tokenizer only folds ASCII.
+            sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + LIBRARY_DATABASE.ITEM_FTS.TABLE + " USING fts4(" +
+                    LIBRARY_DATABASE.ITEM_FTS.COLUMNS.TEXT +
+                    (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? ", tokenize=unicode61" : "") + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LIBRARY_DATABASE.VIEW.TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LIBRARY_DATABASE.ITEM.TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LIBRARY_DATABASE.ITEM_FTS.TABLE);
+            // The database is a copy of the library on the server, so it can be synced again.
+            onCreate(sqLiteDatabase);
+        }
+    }
+
+    private SQLiteDatabase db() {
+        return openHelper.getWritableDatabase();
+    }
+
+    /** @return All the views in the database, including the ones which were never synced completely. */
+    @NonNull
+    public List<View> getViews() {
+        List<View> views = new ArrayList<>();
+        try (Cursor cursor = db().rawQuery("select * from " + LIBRARY_DATABASE.VIEW.TABLE, null)) {
+            while (cursor.moveToNext()) {
+                views.add(getView(cursor));
+            }
+        }
+        return views;
+    }
+
+    @Nullable
+    public View getView(String key) {
+        try (Cursor cursor = db().rawQuery("select * from " + LIBRARY_DATABASE.VIEW.TABLE +
+                " where " + LIBRARY_DATABASE.VIEW.COLUMNS.KEY + "=?", new String[]{key})) {
+            if (cursor.moveToNext()) {
+                return getView(cursor);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a view if it is not already in the database. The view has no items until the first
+     * sync has finished.
+     */
+    public void addView(String key, @Nullable String playerId, List<String> cmd, Map<String, Object> params) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.KEY, key);
+        contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.PLAYER_ID, playerId);
+        contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.CMD, JSON.toString(cmd.toArray()));
+        contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.PARAMS, JSON.toString(params));
+        db().insertWithOnConflict(LIBRARY_DATABASE.VIEW.TABLE, null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Store records of a view, replacing the records at the same positions.
+     *
+     * @param start Position of the first record
+     */
+    public void putItems(View view, int start, List<Map<String, Object>> records) {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            // Replaced items get a new id, so remove them from the index
+            removeFromIndex(db, view, LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + ">=? and " + LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + "<?",
+                    String.valueOf(start), String.valueOf(start + records.size()));
+
+            ContentValues contentValues = new ContentValues();
+            ContentValues indexValues = new ContentValues();
+            for (int i = 0; i < records.size(); i++) {
+                Map<String, Object> record = records.get(i);
+                String text = getText(record);
+                contentValues.put(LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID, view.id);
+                contentValues.put(LIBRARY_DATABASE.ITEM.COLUMNS.POSITION, start + i);
+                contentValues.put(LIBRARY_DATABASE.ITEM.COLUMNS.TEXT, text);
+                contentValues.put(LIBRARY_DATABASE.ITEM.COLUMNS.RECORD, JSON.toString(record));
+                long id = db.insertWithOnConflict(LIBRARY_DATABASE.ITEM.TABLE, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+
+                indexValues.put(LIBRARY_DATABASE.ITEM_FTS.COLUMNS.DOCID, id);
+                indexValues.put(LIBRARY_DATABASE.ITEM_FTS.COLUMNS.TEXT, text);
+                db.insert(LIBRARY_DATABASE.ITEM_FTS.TABLE, null, indexValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Complete a sync of a view. Records beyond the new size of the view are removed.
+     *
+     * @param count Number of items in the view
+     * @param base The base record of the view, which is common for all the items
+     * @param lastScan Last scan of the library when the sync started
+     * @return The updated view
+     */
+    public View finishSync(View view, int count, @Nullable Map<String, Object> base, String lastScan) {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            removeFromIndex(db, view, LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + ">=?", String.valueOf(count));
+            db.delete(LIBRARY_DATABASE.ITEM.TABLE, LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + "=? and " +
+                    LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + ">=?", new String[]{String.valueOf(view.id), String.valueOf(count)});
+
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.COUNT, count);
+            contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.BASE, base != null ? JSON.toString(base) : null);
+            contentValues.put(LIBRARY_DATABASE.VIEW.COLUMNS.LAST_SCAN, lastScan);
+            db.update(LIBRARY_DATABASE.VIEW.TABLE, contentValues, LIBRARY_DATABASE.VIEW.COLUMNS.ID + "=?",
+                    new String[]{String.valueOf(view.id)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return getView(view.key);
+    }
+
+    /** @return Up to count records of a view, starting at the given position. */
+    @NonNull
+    public List<Map<String, Object>> getItems(View view, int start, int count) {
+        List<Map<String, Object>> records = new ArrayList<>();
+        try (Cursor cursor = db().rawQuery("select " + LIBRARY_DATABASE.ITEM.COLUMNS.RECORD + " from " + LIBRARY_DATABASE.ITEM.TABLE +
+                        " where " + LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + "=? and " + LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + ">=?" +
+                        " order by " + LIBRARY_DATABASE.ITEM.COLUMNS.POSITION + " limit ?",
+                new String[]{String.valueOf(view.id), String.valueOf(start), String.valueOf(count)})) {
+            while (cursor.moveToNext()) {
+                records.add(parseRecord(cursor.getString(0)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Search the text of the items of a view. Each word of the query matches words which start
+     * with it, in any order. Items which start with the query are ranked first, then shorter
+     * items before longer ones.
+     *
+     * @return Up to count of the matching records, starting at the given position in the ranked
+     * result.
+     */
+    @NonNull
+    public List<Map<String, Object>> search(View view, String query, int start, int count) {
+        List<Map<String, Object>> records = new ArrayList<>();
+        String match = matchExpression(query);
+        if (match == null) {
+            return records;
+        }
+        String prefix = query.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        try (Cursor cursor = db().rawQuery("select i." + LIBRARY_DATABASE.ITEM.COLUMNS.RECORD + searchFrom() +
+                        " order by case when i." + LIBRARY_DATABASE.ITEM.COLUMNS.TEXT + " like ? escape '\\' then 0 else 1 end," +
+                        " length(i." + LIBRARY_DATABASE.ITEM.COLUMNS.TEXT + "), i." + LIBRARY_DATABASE.ITEM.COLUMNS.POSITION +
+                        " limit ? offset ?",
+                new String[]{match, String.valueOf(view.id), prefix, String.valueOf(count), String.valueOf(start)})) {
+            while (cursor.moveToNext()) {
+                records.add(parseRecord(cursor.getString(0)));
+            }
+        }
+        return records;
+    }
+
+    /** @return Number of items of a view which match the query, see {@link #search(View, String, int, int)} */
+    public int searchCount(View view, String query) {
+        String match = matchExpression(query);
+        if (match == null) {
+            return 0;
+        }
+        try (Cursor cursor = db().rawQuery("select count(*)" + searchFrom(), new String[]{match, String.valueOf(view.id)})) {
+            return cursor.moveToNext() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private static String searchFrom() {
+        return " from " + LIBRARY_DATABASE.ITEM_FTS.TABLE + " f join " + LIBRARY_DATABASE.ITEM.TABLE + " i" +
+                " on i." + LIBRARY_DATABASE.ITEM.COLUMNS.ID + "=f." + LIBRARY_DATABASE.ITEM_FTS.COLUMNS.DOCID +
+                " where f." + LIBRARY_DATABASE.ITEM_FTS.COLUMNS.TEXT + " match ? and i." + LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + "=?";
+    }
+
+    /** @return Full-text query which matches all words of the query as prefixes, or null if there are no words. */
+    @Nullable
+    private static String matchExpression(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                sb.append(sb.length() > 0 ? " " : "").append(word).append('*');
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private void removeFromIndex(SQLiteDatabase db, View view, String where, String... args) {
+        String[] bindArgs = new String[args.length + 1];
+        bindArgs[0] = String.valueOf(view.id);
+        System.arraycopy(args, 0, bindArgs, 1, args.length);
+        db.execSQL("delete from " + LIBRARY_DATABASE.ITEM_FTS.TABLE + " where " + LIBRARY_DATABASE.ITEM_FTS.COLUMNS.DOCID +
+                " in (select " + LIBRARY_DATABASE.ITEM.COLUMNS.ID + " from " + LIBRARY_DATABASE.ITEM.TABLE +
+                " where " + LIBRARY_DATABASE.ITEM.COLUMNS.VIEW_ID + "=? and " + where + ")", bindArgs);
+    }
+
+    /** Remove all views. */
+    public void clear() {
+        db().delete(LIBRARY_DATABASE.ITEM_FTS.TABLE, null, null);
+        db().delete(LIBRARY_DATABASE.ITEM.TABLE, null, null);
+        db().delete(LIBRARY_DATABASE.VIEW.TABLE, null, null);
+        // Give the space back to the file system
+        db().execSQL("VACUUM");
+    }
+
+    /** Close the database. It is opened again when it is used. */
+    public void close() {
+        openHelper.close();
+    }
+
+    private View getView(Cursor cursor) {
+        String base = cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.BASE));
+        Object[] cmd = (Object[]) JSON.parse(cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.CMD)));
+        return new View(
+                cursor.getLong(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.ID)),
+                cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.KEY)),
+                cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.PLAYER_ID)),
+                Arrays.asList(Arrays.copyOf(cmd, cmd.length, String[].class)),
+                parseRecord(cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.PARAMS))),
+                base != null ? parseRecord(base) : null,
+                cursor.getInt(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.COUNT)),
+                cursor.getString(cursor.getColumnIndex(LIBRARY_DATABASE.VIEW.COLUMNS.LAST_SCAN))
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseRecord(String json) {
+        return (Map<String, Object>) JSON.parse(json);
+    }
+
+    private static String getText(Map<String, Object> record) {
+        return Util.getStringOrEmpty(record, record.containsKey("name") ? "name" : "text");
+    }
+
+    /** A view of the library, f.e. all albums. */
+    public static class View {
+        private final long id;
+        public final String key;
+        @Nullable public final String playerId;
+        public final List<String> cmd;
+        public final Map<String, Object> params;
+        @Nullable public final Map<String, Object> base;
+
+        /** Number of items in the view, or -1 if it was never synced completely. */
+        public final int count;
+
+        /** Last scan of the library when the view was synced. */
+        @Nullable public final String lastScan;
+
+        private View(long id, String key, @Nullable String playerId, List<String> cmd, Map<String, Object> params,
+                     @Nullable Map<String, Object> base, int count, @Nullable String lastScan) {
+            this.id = id;
+            this.key = key;
+            this.playerId = playerId;
+            this.cmd = Collections.unmodifiableList(cmd);
+            this.params = params;
+            this.base = base;
+            this.count = count;
+            this.lastScan = lastScan;
+        }
+
+        /** @return True if the view has been synced, so it can be read. */
+        public boolean isComplete() {
+            return count >= 0;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package uk.org.ngo.squeezer.library;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Local copy of the artists, albums, genres, years and tracks of the library, so these lists can
+ * be shown without waiting for the server, and while the server is not connected.
+ * <p>
+ * Views are added when the user browses them, and are then synced in the background. The views
+ * are synced again when the server reports a new scan of the library. A view which is being
+ * synced again can still be read; its records are replaced as they arrive.
+ * <p>
+ * Searches of a mirrored view, f.e. the artists matching a search string, are answered from a
+ * full-text index of the view.
+ * <p>
+ * The mirror doesn't talk to the server. The client requests the items of a view when
+ * {@link #startSync(String, String, List, Map)} says so, and passes them to
+ * {@link #putItems(String, int, List)}.
+ * <p>
+ * This class is thread safe. The database is accessed on its own thread.
+ */
+public class LibraryMirror {
+    private static final String TAG = LibraryMirror.class.getSimpleName();
+
+    /** Browse modes which are mirrored. */
+    private static final Set<String> MODES = ImmutableSet.of("artists", "albums", "genres", "years", "tracks");
+
+    private final LibraryDatabase database;
+
+    /** Handler for the database thread. */
+    private final Handler handler;
+
+    /** The views in the database, by their key. */
+    private final Map<String, LibraryDatabase.View> views = new ConcurrentHashMap<>();
+
+    /** Last scan of the library when the sync of a view started, by the key of the view. */
+    private final Map<String, String> syncing = new ConcurrentHashMap<>();
+
+    /** Last scan of the library, as reported in server status, or null if not known. */
+    @Nullable
+    private volatile String lastScan;
+
+    /** True if the server is scanning the library, so views are not synced. */
+    private volatile boolean rescanning;
+
+    public LibraryMirror(Context context) {
+        database = new LibraryDatabase(context);
+        HandlerThread handlerThread = new HandlerThread(TAG);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+        handler.post(() -> {
+            for (LibraryDatabase.View view : database.getViews()) {
+                views.put(view.key, view);
+            }
+            Log.i(TAG, "Loaded " + views.size() + " views");
+        });
+    }
+
+    /**
+     * Get the key of the view for a browse command. Only the unfiltered lists of artists, albums,
+     * genres, years and tracks are mirrored.
+     *
+     * @param server The server the command is for
+     * @param playerId The player the command is for, the player may restrict the library
+     * @return The key, or null if the response to the command is not mirrored.
+     */
+    @Nullable
+    public static String getViewKey(String server, @Nullable String playerId, List<String> cmd, Map<String, Object> params) {
+        if (server == null || cmd.size() != 2 || !"browselibrary".equals(cmd.get(0)) || !"items".equals(cmd.get(1))) {
+            return null;
+        }
+        if (!MODES.contains(String.valueOf(params.get("mode")))) {
+            return null;
+        }
+        for (String param : params.keySet()) {
+            if (param.endsWith("_id") || "search".equals(param) || "year".equals(param)) {
+                return null;
+            }
+        }
+        return server + '|' + (playerId != null ? playerId : "") + '|' + cmd + '|' + new TreeMap<>(params);
+    }
+
+    /**
+     * @return The parameters of the view which is searched by a browse command, which are the
+     * parameters of the command without the search string.
+     */
+    public static Map<String, Object> getViewParams(Map<String, Object> params) {
+        if (!params.containsKey("search")) {
+            return params;
+        }
+        Map<String, Object> viewParams = new HashMap<>(params);
+        viewParams.remove("search");
+        return viewParams;
+    }
+
+    /** @return The search string of a browse command, or null if the command is not a search. */
+    @Nullable
+    public static String getSearch(Map<String, Object> params) {
+        Object search = params.get("search");
+        return search != null ? search.toString() : null;
+    }
+
+    /** @return True if the view has been synced, so it can be read. */
+    public boolean isReadable(String key) {
+        LibraryDatabase.View view = views.get(key);
+        return view != null && view.isComplete();
+    }
+
+    /**
+     * Read items of a view. The consumer is called on the database thread, with null if the view
+     * is no longer in the database.
+     *
+     * @param search If not null, read the items which match this search string instead
+     */
+    public void read(String key, @Nullable String search, int start, int count, Consumer<Page> consumer) {
+        handler.post(() -> {
+            LibraryDatabase.View view = views.get(key);
+            if (view == null || !view.isComplete()) {
+                consumer.accept(null);
+            } else if (search != null) {
+                consumer.accept(new Page(database.searchCount(view, search), view.base, database.search(view, search, start, count)));
+            } else {
+                consumer.accept(new Page(view.count, view.base, database.getItems(view, start, count)));
+            }
+        });
+    }
+
+    /**
+     * Check if a view must be synced, because it is new or the library has been scanned since it
+     * was synced. If so, the caller must request all the items of the view, pass them to
+     * {@link #putItems(String, int, List)} and finally call {@link #finishSync(String, int, Map)}
+     * or {@link #abortSync(String)}.
+     *
+     * @return True if the caller must sync the view.
+     */
+    public boolean startSync(String key, @Nullable String playerId, List<String> cmd, Map<String, Object> params) {
+        String lastScan = this.lastScan;
+        if (lastScan == null || rescanning) {
+            return false;
+        }
+        LibraryDatabase.View view = views.get(key);
+        if (view != null && lastScan.equals(view.lastScan)) {
+            return false;
+        }
+        if (syncing.putIfAbsent(key, lastScan) != null) {
+            return false;
+        }
+
+        Log.i(TAG, "Sync " + key);
+        List<String> viewCmd = new ArrayList<>(cmd);
+        Map<String, Object> viewParams = new HashMap<>(params);
+        handler.post(() -> {
+            database.addView(key, playerId, viewCmd, viewParams);
+            views.put(key, database.getView(key));
+        });
+        return true;
+    }
+
+    /** Store records of a view which is being synced. */
+    public void putItems(String key, int start, List<Map<String, Object>> records) {
+        handler.post(() -> {
+            LibraryDatabase.View view = views.get(key);
+            if (view != null && syncing.containsKey(key)) {
+                database.putItems(view, start, records);
+            }
+        });
+    }
+
+    /** All the items of a view have been stored, so it can be read. */
+    public void finishSync(String key, int count, @Nullable Map<String, Object> base) {
+        handler.post(() -> {
+            LibraryDatabase.View view = views.get(key);
+            String lastScan = syncing.remove(key);
+            if (view != null && lastScan != null) {
+                views.put(key, database.finishSync(view, count, base, lastScan));
+                Log.i(TAG, "Synced " + count + " items of " + key);
+            }
+        });
+    }
+
+    /** The sync of a view failed. The view is still readable if it was synced before. */
+    public void abortSync(String key) {
+        syncing.remove(key);
+    }
+
+    /**
+     * Set the state of the library on the server.
+     *
+     * @param lastScan Time of the last scan as reported by the server
+     * @param rescanning True if the server is scanning the library
+     * @return Views for the given server which must be synced again, because the library has
+     * been scanned since.
+     */
+    @NonNull
+    public List<LibraryDatabase.View> setLibraryState(String server, @Nullable String lastScan, boolean rescanning) {
+        this.lastScan = lastScan;
+        this.rescanning = rescanning;
+        if (lastScan == null || rescanning) {
+            return Collections.emptyList();
+        }
+
+        List<LibraryDatabase.View> stale = new ArrayList<>();
+        for (LibraryDatabase.View view : views.values()) {
+            if (view.key.startsWith(server + '|') && !lastScan.equals(view.lastScan)) {
+                stale.add(view);
+            }
+        }
+        return stale;
+    }
+
+    /** Remove all views, f.e. when the mirror is turned off. */
+    public void clear() {
+        views.clear();
+        syncing.clear();
+        handler.post(database::clear);
+    }
+
+    /** Close the database and stop the database thread, after pending work is done. */
+    public void close() {
+        handler.post(database::close);
+        handler.getLooper().quitSafely();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LibraryMirror{views=" + views.size() + ", syncing=" + syncing.size() + "}";
+    }
+
+    /** Items read from a view. */
+    public static class Page {
+        /** Number of items in the view. */
+        public final int count;
+
+        /** The base record of the view, which is common for all the items. */
+        @Nullable public final Map<String, Object> base;
+
+        public final List<Map<String, Object>> records;
+
+        private Page(int count, @Nullable Map<String, Object> base, List<Map<String, Object>> records) {
+            this.count = count;
+            this.base = base;
+            this.records = records;
+        }
+    }
+
+    /** A record of a library view, as received from the server. */
+    public static class Record {
+        public final Map<String, Object> record;
+
+        public Record(Map<String, Object> record) {
+            this.record = new HashMap<>(record);
+            // The base record is stored once for the view, and the url prefix is set when read
+            this.record.remove("base");
+            this.record.remove("urlPrefix");
+        }
+    }
+}
@@ -206,16 +206,24 @@ public class Player extends Item implements Comparable<Player> {
     }
 
     public SongTimeChanged getTrackElapsed() {
-        double now = SystemClock.elapsedRealtime() / 1000.0;
-        double trackCorrection = mPlayerState.rate * (now - mPlayerState.statusSeen);
-        int trackElapsed = (int) (trackCorrection <= 0 ? mPlayerState.getCurrentTimeSecond() : mPlayerState.getCurrentTimeSecond() + trackCorrection);
-        if (trackElapsed > mPlayerState.getCurrentSongDuration()) {
-            trackElapsed = mPlayerState.getCurrentSongDuration();
-        }
-
+        int trackElapsed = (int) getTrackPosition(SystemClock.elapsedRealtime());
         return new SongTimeChanged(this, trackElapsed, mPlayerState.getCurrentSongDuration());
     }
 
+    /**
+     * The playback clock of the player. The position in the last status is advanced by the play
+     * rate since the status was received, so the clock can be read as often as needed, without
+     * waiting for the server.
+     *
+     * @param now Time to read the clock at, as {@link SystemClock#elapsedRealtime()}
+     * @return Position in the current song in seconds, at most the duration of the song.
+     */
+    public double getTrackPosition(long now) {
+        double trackCorrection = mPlayerState.rate * (now / 1000.0 - mPlayerState.statusSeen);
+        double trackPosition = (trackCorrection <= 0 ? mPlayerState.getCurrentTimeSecond() : mPlayerState.getCurrentTimeSecond() + trackCorrection);
+        return Math.min(trackPosition, mPlayerState.getCurrentSongDuration());
+    }
+
     public int getSleepingIn() {
         double now = SystemClock.elapsedRealtime() / 1000.0;
         double correction = now - mPlayerState.statusSeen;
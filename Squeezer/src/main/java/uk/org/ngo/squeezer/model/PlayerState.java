@@ -134,6 +134,13 @@ public class PlayerState implements Parcelable {
 
     public double statusSeen;
 
+    /**
+     * The last status received from the server, so the parts of a new status which have not
+     * changed needn't be parsed again. Not parcelled.
+     */
+    @Nullable
+    public Map<String, Object> lastStatus;
+
     private int currentVolume = -1;
 
     private int sleepDuration;
@@ -419,8 +426,15 @@ public class PlayerState implements Parcelable {
                 '}';
     }
 
+    /** How the status of a player is followed, in increasing order of the updates it gives. */
     public enum PlayerSubscriptionType {
         NOTIFY_NONE("-"),
+        /**
+         * The status is requested at an interval by the client. The server sends a subscribed
+         * status on every change, whatever the interval of the subscription, so this is not a
+         * subscription on the server.
+         */
+        NOTIFY_INTERVAL("-"),
         NOTIFY_ON_CHANGE("600");
 
         private final String status;
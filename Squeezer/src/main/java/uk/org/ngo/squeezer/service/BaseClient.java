@@ -18,13 +18,19 @@ package uk.org.ngo.squeezer.service;
 
 import android.os.SystemClock;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.common.base.Splitter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
-import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.R;
 import uk.org.ngo.squeezer.Squeezer;
 import uk.org.ngo.squeezer.Util;
@@ -33,31 +39,37 @@ import uk.org.ngo.squeezer.model.CurrentPlaylistItem;
 import uk.org.ngo.squeezer.model.Player;
 import uk.org.ngo.squeezer.model.PlayerState;
 import uk.org.ngo.squeezer.model.SlimCommand;
-import uk.org.ngo.squeezer.service.event.MusicChanged;
-import uk.org.ngo.squeezer.service.event.PlayStatusChanged;
-import uk.org.ngo.squeezer.service.event.PlayerStateChanged;
-import uk.org.ngo.squeezer.service.event.PlayerVolume;
-import uk.org.ngo.squeezer.service.event.PlaylistChanged;
-import uk.org.ngo.squeezer.service.event.PowerStatusChanged;
-import uk.org.ngo.squeezer.service.event.RepeatStatusChanged;
-import uk.org.ngo.squeezer.service.event.ShuffleStatusChanged;
+import uk.org.ngo.squeezer.service.event.PlayerChanges;
 
 abstract class BaseClient implements SlimClient {
     final static int mPageSize = Squeezer.getContext().getResources().getInteger(R.integer.PageSize);
 
+    /** Number of browse responses kept in {@link #mBrowseCache} */
+    private static final int BROWSE_CACHE_SIZE = 64;
+
+    /** Recent browse responses */
+    final BrowseCache<Page<?>> mBrowseCache = new BrowseCache<>(BROWSE_CACHE_SIZE);
+
     final AtomicReference<String> username = new AtomicReference<>();
     final AtomicReference<String> password = new AtomicReference<>();
 
     final ConnectionState mConnectionState;
 
     /** Shared event bus for status changes. */
-    @NonNull final EventBus mEventBus;
+    @NonNull final SqueezeService.EventBus mEventBus;
+
+    /** Changes to players, posted once per frame. */
+    @NonNull final PlayerEvents mPlayerEvents;
+
+    /** Changes the user made which the server hasn't confirmed yet, by player id. */
+    private final Map<String, PendingChanges> mPendingChanges = new ConcurrentHashMap<>();
 
     /** The prefix for URLs for downloads and cover art. */
     String mUrlPrefix;
 
-    BaseClient(@NonNull EventBus eventBus) {
+    BaseClient(@NonNull SqueezeService.EventBus eventBus) {
         mEventBus = eventBus;
+        mPlayerEvents = new PlayerEvents(eventBus);
         mConnectionState = new ConnectionState(eventBus);
     }
 
@@ -89,39 +101,196 @@ abstract class BaseClient implements SlimClient {
         return mUrlPrefix;
     }
 
+    /**
+     * Fields of a status which change rarely. If none of them has changed since the last status,
+     * only the position in the song, and the song itself, are parsed.
+     */
+    private static final String[] STATUS_FINGERPRINT = {
+            "playlist_timestamp", "playlist_cur_index", "mode", "mixer volume", "power",
+            "playlist shuffle", "playlist repeat", "playlist_tracks", "playlist_name",
+            "will_sleep_in", "sleep", "remote", "sync_master", "sync_slaves",
+    };
+
+    /** Fields of a status which tell which song is current. */
+    private static final String[] PLAYLIST_FINGERPRINT = {"playlist_timestamp", "playlist_cur_index"};
+
+    /**
+     * Fields of the record of the current song, or of the status if it has no song record, which
+     * tell if the song has changed. The title and artwork of a radio stream change while the
+     * rest stays the same.
+     */
+    private static final String[] SONG_FINGERPRINT = {
+            "id", "text", "title", "current_title", "remote_title", "icon", "icon-id", "artwork_url", "coverid",
+    };
+
+    @Override
+    public int setLocalState(Player player, PendingChanges.Field field, Object value) {
+        long now = SystemClock.elapsedRealtime();
+        PlayerState playerState = player.getPlayerState();
+        int change = getPendingChanges(player).expect(field, value, now);
+
+        // Restart the playback clock from here, as the play status or position may change
+        playerState.setCurrentTimeSecond(player.getTrackPosition(now));
+        playerState.statusSeen = now / 1000.0;
+
+        // Parse the next status in full, so it can confirm or correct the change
+        playerState.lastStatus = null;
+
+        int changes = PlayerChanges.STATE;
+        switch (field) {
+            case PLAY_STATUS:
+                if (playerState.setPlayStatus((String) value)) {
+                    changes |= PlayerChanges.PLAY_STATUS;
+                }
+                playerState.rate = (playerState.isPlaying() ? 1 : 0);
+                break;
+            case POWER:
+                if (playerState.setPoweredOn((Integer) value == 1)) {
+                    changes |= PlayerChanges.POWER;
+                }
+                break;
+            case SHUFFLE:
+                if (playerState.setShuffleStatus(PlayerState.ShuffleStatus.valueOf((Integer) value))) {
+                    changes |= PlayerChanges.SHUFFLE;
+                }
+                break;
+            case REPEAT:
+                if (playerState.setRepeatStatus(PlayerState.RepeatStatus.valueOf((Integer) value))) {
+                    changes |= PlayerChanges.REPEAT;
+                }
+                break;
+            case VOLUME:
+                if (playerState.setCurrentVolume((Integer) value)) {
+                    changes |= PlayerChanges.VOLUME;
+                }
+                break;
+            case TIME:
+                playerState.setCurrentTimeSecond((Double) value);
+                changes |= PlayerChanges.TIME;
+                break;
+        }
+        mPlayerEvents.add(player, changes);
+        return change;
+    }
+
+    /** The server has responded to the command which made a change, see {@link PendingChanges#acknowledge(int)}. */
+    void acknowledgeLocalState(Player player, int change) {
+        PendingChanges pendingChanges = mPendingChanges.get(player.getId());
+        if (pendingChanges != null) {
+            pendingChanges.acknowledge(change);
+        }
+    }
+
+    /**
+     * Stop waiting for a change, because its command failed or no status has settled it in time.
+     * If it was not settled, the shown state may be wrong, so get the state from the server.
+     */
+    void dropLocalState(Player player, int change) {
+        PendingChanges pendingChanges = mPendingChanges.get(player.getId());
+        if (pendingChanges != null && pendingChanges.remove(change)) {
+            if (mConnectionState.isConnected()) {
+                requestPlayerStatus(player);
+            }
+        }
+    }
+
+    private PendingChanges getPendingChanges(Player player) {
+        PendingChanges pendingChanges = mPendingChanges.get(player.getId());
+        if (pendingChanges == null) {
+            pendingChanges = new PendingChanges();
+            PendingChanges existing = mPendingChanges.putIfAbsent(player.getId(), pendingChanges);
+            if (existing != null) {
+                pendingChanges = existing;
+            }
+        }
+        return pendingChanges;
+    }
+
+    /**
+     * @return True if the value of a field in a status must be applied, because it doesn't
+     *     contradict a change the user made.
+     */
+    private static boolean accept(@Nullable PendingChanges pendingChanges, PendingChanges.Field field, Object value, long now) {
+        return pendingChanges == null || pendingChanges.accept(field, value, now);
+    }
+
+    /**
+     * Parse a player status.
+     * <p>
+     * Values which contradict a change the user made are ignored until the server confirms the
+     * change, see {@link PendingChanges}. The values are compared as an Integer for power,
+     * shuffle, repeat and volume, as a String for the play status, and as a Double for the
+     * position in the song.
+     */
     void parseStatus(final Player player, CurrentPlaylistItem currentSong, Map<String, Object> tokenMap) {
         PlayerState playerState = player.getPlayerState();
-        playerState.statusSeen = SystemClock.elapsedRealtime() / 1000.0;
-
-        boolean changedPower = playerState.setPoweredOn(Util.getInt(tokenMap, "power") == 1);
-        boolean changedShuffleStatus = playerState.setShuffleStatus(Util.getString(tokenMap, "playlist shuffle"));
-        boolean changedRepeatStatus = playerState.setRepeatStatus(Util.getString(tokenMap, "playlist repeat"));
-        boolean changedPlaylist = playerState.setCurrentPlaylistTimestamp(Util.getLong(tokenMap, "playlist_timestamp"));
-        playerState.setCurrentPlaylistTracksNum(Util.getInt(tokenMap, "playlist_tracks"));
-        playerState.setCurrentPlaylistIndex(Util.getInt(tokenMap, "playlist_cur_index"));
-        playerState.setCurrentPlaylist(Util.getString(tokenMap, "playlist_name"));
-        boolean changedSleep = playerState.setSleep(Util.getInt(tokenMap, "will_sleep_in"));
-        boolean changedSleepDuration = playerState.setSleepDuration(Util.getInt(tokenMap, "sleep"));
-        if (currentSong == null) currentSong = new CurrentPlaylistItem(tokenMap);
+        long now = SystemClock.elapsedRealtime();
+        double localPosition = player.getTrackPosition(now);
+        playerState.statusSeen = now / 1000.0;
+        PendingChanges pendingChanges = mPendingChanges.get(player.getId());
+
+        if (currentSong == null) currentSong = (isSameSong(playerState, tokenMap) ? playerState.getCurrentSong() : new CurrentPlaylistItem(tokenMap));
+        Map<String, Object> lastStatus = playerState.lastStatus;
+        playerState.lastStatus = tokenMap;
+
+        boolean changedPower = false;
+        boolean changedShuffleStatus = false;
+        boolean changedRepeatStatus = false;
+        boolean changedPlaylist = false;
+        boolean changedSleep = false;
+        boolean changedSleepDuration = false;
+        boolean changedVolume = false;
+        boolean changedSyncMaster = false;
+        boolean changedSyncSlaves = false;
+        boolean changedStatus = (lastStatus == null || !sameValues(tokenMap, lastStatus, STATUS_FINGERPRINT));
+        if (changedStatus) {
+            if (accept(pendingChanges, PendingChanges.Field.POWER, Util.getInt(tokenMap, "power"), now)) {
+                changedPower = playerState.setPoweredOn(Util.getInt(tokenMap, "power") == 1);
+            }
+            if (accept(pendingChanges, PendingChanges.Field.SHUFFLE, Util.getInt(tokenMap, "playlist shuffle"), now)) {
+                changedShuffleStatus = playerState.setShuffleStatus(Util.getString(tokenMap, "playlist shuffle"));
+            }
+            if (accept(pendingChanges, PendingChanges.Field.REPEAT, Util.getInt(tokenMap, "playlist repeat"), now)) {
+                changedRepeatStatus = playerState.setRepeatStatus(Util.getString(tokenMap, "playlist repeat"));
+            }
+            changedPlaylist = playerState.setCurrentPlaylistTimestamp(Util.getLong(tokenMap, "playlist_timestamp"));
+            playerState.setCurrentPlaylistTracksNum(Util.getInt(tokenMap, "playlist_tracks"));
+            playerState.setCurrentPlaylistIndex(Util.getInt(tokenMap, "playlist_cur_index"));
+            playerState.setCurrentPlaylist(Util.getString(tokenMap, "playlist_name"));
+            changedSleep = playerState.setSleep(Util.getInt(tokenMap, "will_sleep_in"));
+            changedSleepDuration = playerState.setSleepDuration(Util.getInt(tokenMap, "sleep"));
+            playerState.setRemote(Util.getInt(tokenMap, "remote") == 1);
+            if (accept(pendingChanges, PendingChanges.Field.VOLUME, Util.getInt(tokenMap, "mixer volume"), now)) {
+                changedVolume = playerState.setCurrentVolume(Util.getInt(tokenMap, "mixer volume"));
+            }
+            changedSyncMaster = playerState.setSyncMaster(Util.getString(tokenMap, "sync_master"));
+            if (lastStatus == null || !sameValues(tokenMap, lastStatus, "sync_slaves")) {
+                changedSyncSlaves = playerState.setSyncSlaves(Splitter.on(",").omitEmptyStrings().splitToList(Util.getStringOrEmpty(tokenMap, "sync_slaves")));
+            }
+        }
         boolean changedSong = playerState.setCurrentSong(currentSong);
-        playerState.setRemote(Util.getInt(tokenMap, "remote") == 1);
         playerState.waitingToPlay = Util.getInt(tokenMap, "waitingToPlay") == 1;
-        playerState.rate = Util.getDouble(tokenMap, "rate");
+        boolean acceptPlayStatus = accept(pendingChanges, PendingChanges.Field.PLAY_STATUS, Util.getString(tokenMap, "mode"), now);
+        playerState.rate = (acceptPlayStatus ? Util.getDouble(tokenMap, "rate") : (playerState.isPlaying() ? 1 : 0));
         boolean changedSongDuration = playerState.setCurrentSongDuration(Util.getInt(tokenMap, "duration"));
-        boolean changedSongTime = playerState.setCurrentTimeSecond(Util.getDouble(tokenMap, "time"));
-        boolean changedVolume = playerState.setCurrentVolume(Util.getInt(tokenMap, "mixer volume"));
-        boolean changedSyncMaster = playerState.setSyncMaster(Util.getString(tokenMap, "sync_master"));
-        boolean changedSyncSlaves = playerState.setSyncSlaves(Splitter.on(",").omitEmptyStrings().splitToList(Util.getStringOrEmpty(tokenMap, "sync_slaves")));
+        double time = Util.getDouble(tokenMap, "time");
+        boolean changedSongTime = playerState.setCurrentTimeSecond(accept(pendingChanges, PendingChanges.Field.TIME, time, now) ? time : localPosition);
 
         player.setPlayerState(playerState);
 
+        // Everything which changed in this status is posted together
+        int changes = 0;
+
         // Kept as its own method because other methods call it, unlike the explicit
         // calls to the callbacks below.
-        updatePlayStatus(player, Util.getString(tokenMap, "mode"));
+        if (changedStatus && acceptPlayStatus && updatePlayStatus(player, Util.getString(tokenMap, "mode"))) {
+            changes |= PlayerChanges.PLAY_STATUS;
+        }
 
         // Current playlist
         if (changedPlaylist) {
-            mEventBus.post(new PlaylistChanged(player));
+            mBrowseCache.invalidatePlaylist(player.getId());
+            changes |= PlayerChanges.PLAYLIST;
         }
 
         if (changedPower || changedSleep || changedSleepDuration || changedVolume
@@ -132,56 +301,98 @@ abstract class BaseClient implements SlimClient {
 
         // Volume
         if (changedVolume) {
-            mEventBus.post(new PlayerVolume(playerState.getCurrentVolume(), player));
+            changes |= PlayerChanges.VOLUME;
         }
 
         // Power status
         if (changedPower) {
-            mEventBus.post(new PowerStatusChanged(player));
+            changes |= PlayerChanges.POWER;
         }
 
         // Current song
         if (changedSong) {
-            mEventBus.postSticky(new MusicChanged(player, playerState));
+            changes |= PlayerChanges.MUSIC;
         }
 
         // Shuffle status.
         if (changedShuffleStatus) {
-            mEventBus.post(new ShuffleStatusChanged(player, playerState.getShuffleStatus()));
+            changes |= PlayerChanges.SHUFFLE;
         }
 
         // Repeat status.
         if (changedRepeatStatus) {
-            mEventBus.post(new RepeatStatusChanged(player, playerState.getRepeatStatus()));
+            changes |= PlayerChanges.REPEAT;
         }
 
         // Position in song
         if (changedSongDuration || changedSongTime) {
             postSongTimeChanged(player);
         }
+
+        if (changes != 0) {
+            mPlayerEvents.add(player, changes);
+        }
+
+        // Parse the next status in full too, until the changes of the user are confirmed
+        if (pendingChanges != null && !pendingChanges.isEmpty()) {
+            playerState.lastStatus = null;
+        }
+    }
+
+    /**
+     * @return True if the current song in a new status is the same as in the last status of the
+     *     player, so it needn't be parsed again.
+     */
+    static boolean isSameSong(PlayerState playerState, Map<String, Object> status) {
+        Map<String, Object> lastStatus = playerState.lastStatus;
+        if (lastStatus == null || playerState.getCurrentSong() == null || !sameValues(status, lastStatus, PLAYLIST_FINGERPRINT)) {
+            return false;
+        }
+        Map<String, Object> song = getSongRecord(status);
+        Map<String, Object> lastSong = getSongRecord(lastStatus);
+        if (song == null || lastSong == null) {
+            return song == lastSong && sameValues(status, lastStatus, SONG_FINGERPRINT);
+        }
+        return sameValues(song, lastSong, SONG_FINGERPRINT);
+    }
+
+    /** @return The record of the current song in a status, or null if it has none. */
+    @Nullable
+    static Map<String, Object> getSongRecord(Map<String, Object> status) {
+        Object[] item_data = (Object[]) status.get("item_loop");
+        return (item_data != null && item_data.length > 0 ? (Map<String, Object>) item_data[0] : null);
+    }
+
+    /** @return True if the given fields have equal values in both records. Doesn't allocate. */
+    private static boolean sameValues(Map<String, Object> record, Map<String, Object> lastRecord, String... keys) {
+        for (String key : keys) {
+            if (!Objects.equals(record.get(key), lastRecord.get(key))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     protected void postSongTimeChanged(Player player) {
-        mEventBus.post(player.getTrackElapsed());
+        mPlayerEvents.add(player, PlayerChanges.TIME);
     }
 
     protected void postPlayerStateChanged(Player player) {
-        mEventBus.post(new PlayerStateChanged(player));
+        mPlayerEvents.add(player, PlayerChanges.STATE);
     }
 
-    private void updatePlayStatus(Player player, String playStatus) {
+    /** @return True if the play status changed. */
+    private boolean updatePlayStatus(Player player, String playStatus) {
         // Handle unknown states.
         if (!playStatus.equals(PlayerState.PLAY_STATE_PLAY) &&
                 !playStatus.equals(PlayerState.PLAY_STATE_PAUSE) &&
                 !playStatus.equals(PlayerState.PLAY_STATE_STOP)) {
-            return;
+            return false;
         }
 
         PlayerState playerState = player.getPlayerState();
 
-        if (playerState.setPlayStatus(playStatus)) {
-            mEventBus.post(new PlayStatusChanged(playStatus, player));
-        }
+        return playerState.setPlayStatus(playStatus);
     }
 
     protected static class BrowseRequest<T> extends SlimCommand {
@@ -189,18 +400,70 @@ abstract class BaseClient implements SlimClient {
         private final boolean fullList;
         private int start;
         private int itemsPerResponse;
-        private final IServiceItemListCallback<T> callback;
+
+        /** The client chooses the page size, see {@link SlimClient#ADAPTIVE_PAGE_SIZE} */
+        private final boolean adaptive;
+
+        /** End of the range the caller asked for. */
+        private final int requestedEnd;
+
+        /** Callbacks for the response. More than one if identical requests are made concurrently. */
+        private final List<IServiceItemListCallback<T>> callbacks;
+
+        /** Set when all callers are gone, so responses are ignored and no more pages are ordered. */
+        private volatile boolean cancelled;
+
+        /**
+         * The request for the first page of the list. Pages of a full list are requested
+         * concurrently, and the first page keeps track of the list.
+         */
+        private final BrowseRequest<T> list;
+
+        // The following are only used for the first page of a full list, guarded by its lock.
+
+        /** Number of items in the list, when the first page is received. */
+        private int size = -1;
+
+        /** Start of the next page to request. */
+        private int nextPage;
+
+        /** Start of the next page to pass to the callbacks. */
+        private int nextDelivery;
+
+        /** Number of pages requested and not yet received. */
+        private int outstanding = 1;
+
+        /** Pages received before an earlier page, by their start. */
+        private final Map<Integer, Page<T>> received = new HashMap<>();
 
         BrowseRequest(Player player, String[] cmd, Map<String, Object> params, int start, int itemsPerResponse, IServiceItemListCallback<T> callback) {
             this.player = player;
             this.cmd(cmd);
             this.fullList = (start < 0);
             this.start = (fullList ? 0 : start);
-            this.itemsPerResponse = itemsPerResponse;
-            this.callback = callback;
+            this.adaptive = (itemsPerResponse == ADAPTIVE_PAGE_SIZE);
+            this.itemsPerResponse = (adaptive ? mPageSize : itemsPerResponse);
+            this.requestedEnd = this.start + this.itemsPerResponse;
+            this.callbacks = new CopyOnWriteArrayList<>();
+            this.callbacks.add(callback);
+            this.list = this;
             if (params != null) this.params(params);
         }
 
+        /** Request for a later page of a full list */
+        private BrowseRequest(BrowseRequest<T> list, int start, int itemsPerResponse) {
+            this.player = list.player;
+            this.cmd(list.cmd);
+            this.params(list.params);
+            this.fullList = true;
+            this.start = start;
+            this.itemsPerResponse = itemsPerResponse;
+            this.adaptive = list.adaptive;
+            this.requestedEnd = start + itemsPerResponse;
+            this.callbacks = list.callbacks;
+            this.list = list;
+        }
+
         public BrowseRequest update(int start, int itemsPerResponse) {
             this.start = start;
             this.itemsPerResponse = itemsPerResponse;
@@ -223,8 +486,106 @@ abstract class BaseClient implements SlimClient {
             return itemsPerResponse;
         }
 
+        boolean isAdaptive() {
+            return adaptive;
+        }
+
+        int getRequestedEnd() {
+            return requestedEnd;
+        }
+
+        /** @return The callback of the first caller */
         public IServiceItemListCallback<T> getCallback() {
-            return callback;
+            return callbacks.get(0);
+        }
+
+        List<IServiceItemListCallback<T>> getCallbacks() {
+            return callbacks;
+        }
+
+        void cancel() {
+            list.cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return list.cancelled;
+        }
+
+        /** @return The request for the first page, which is used to synchronize the pages of a full list */
+        BrowseRequest<T> getList() {
+            return list;
+        }
+
+        /**
+         * Record a received page of a full list. Must be called on the first page, holding its lock.
+         *
+         * @return The pages which can now be passed to the callbacks, in order.
+         */
+        List<Page<T>> receivePage(BrowseRequest<T> page, int count, Map<String, Object> data, List<T> items) {
+            if (page == this) {
+                size = count;
+                nextPage = itemsPerResponse;
+            }
+            outstanding--;
+            received.put(page.start, new Page<>(page.start, page.itemsPerResponse, count, data, items));
+
+            List<Page<T>> pages = new ArrayList<>();
+            Page<T> next;
+            while ((next = received.remove(nextDelivery)) != null) {
+                pages.add(next);
+                nextDelivery = next.start + next.itemsPerResponse;
+            }
+            return pages;
+        }
+
+        /**
+         * Create requests for the next pages of a full list, so up to the given number of pages are
+         * outstanding. Must be called on the first page, holding its lock.
+         */
+        List<BrowseRequest<T>> nextPages(int pageSize, int concurrency) {
+            List<BrowseRequest<T>> pages = new ArrayList<>();
+            while (size >= 0 && outstanding < concurrency && nextPage < size) {
+                int itemsPerResponse = Math.min(pageSize, size - nextPage);
+                pages.add(new BrowseRequest<>(this, nextPage, itemsPerResponse));
+                nextPage += itemsPerResponse;
+                outstanding++;
+            }
+            return pages;
+        }
+
+        void addCallback(IServiceItemListCallback<T> callback) {
+            callbacks.add(callback);
+        }
+
+        /**
+         * Remove the callbacks of the supplied client.
+         *
+         * @return True if there are no callbacks left
+         */
+        boolean removeCallbacks(Object client) {
+            for (IServiceItemListCallback<T> callback : callbacks) {
+                if (callback.getClient() == client) {
+                    callbacks.remove(callback);
+                }
+            }
+            return callbacks.isEmpty();
+        }
+    }
+
+    /** A received page of a list */
+    static class Page<T> {
+        final int start;
+        final int itemsPerResponse;
+        final int count;
+        final Map<String, Object> data;
+        final List<T> items;
+
+        Page(int start, int itemsPerResponse, int count, Map<String, Object> data, List<T> items) {
+            this.start = start;
+            this.itemsPerResponse = itemsPerResponse;
+            this.count = count;
+            this.data = data;
+            this.items = items;
         }
     }
 }
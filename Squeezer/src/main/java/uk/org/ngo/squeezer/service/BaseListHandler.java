@@ -1,13 +1,9 @@
 package uk.org.ngo.squeezer.service;
 
-import androidx.fragment.app.Fragment.InstantiationException;
-
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-
-import uk.org.ngo.squeezer.util.Reflection;
+import java.util.function.Function;
 
 /**
  * Base class that constructs a list of model objects based on CLI results from
@@ -20,11 +16,15 @@ abstract class BaseListHandler<T> implements ListHandler<T> {
 
     private List<T> items;
 
-    @SuppressWarnings("unchecked")
-    private final Class<T> dataType = (Class<T>) Reflection
-            .getGenericClass(this.getClass(), ListHandler.class, 0);
+    private final Class<T> dataType;
+
+    /** Creates an item from a record, typically the constructor of the model class. */
+    private final Function<Map<String, Object>, T> factory;
 
-    private Constructor<T> constructor;
+    BaseListHandler(Class<T> dataType, Function<Map<String, Object>, T> factory) {
+        this.dataType = dataType;
+        this.factory = factory;
+    }
 
     @Override
     public Class<T> getDataType() {
@@ -45,19 +45,12 @@ abstract class BaseListHandler<T> implements ListHandler<T> {
 
     @Override
     public void add(Map<String, Object> record) {
-        if (constructor == null) {
-            try {
-                constructor = dataType.getDeclaredConstructor(Map.class);
-            } catch (Exception e) {
-                throw new InstantiationException(
-                        "Unable to create constructor for " + dataType.getName(), e);
-            }
-        }
-        try {
-            items.add(constructor.newInstance(record));
-        } catch (Exception e) {
-            throw new InstantiationException("Unable to create new " + dataType.getName(), e);
-        }
+        items.add(newItem(record));
+    }
+
+    /** @return A new item from the record, without adding it to the items of this handler. */
+    T newItem(Map<String, Object> record) {
+        return factory.apply(record);
     }
 
 }
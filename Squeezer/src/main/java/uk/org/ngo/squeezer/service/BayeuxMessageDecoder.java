@@ -0,0 +1,448 @@
+package uk.org.ngo.squeezer.service;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.HashMapMessage;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes UTF-8 encoded bayeux messages directly into {@link Message.Mutable} instances.
+ * <p>
+ * This replaces the text round trip through the cometd JSON context. The types produced are the
+ * same as those of the jetty JSON parser, which the rest of the code expects: objects become
+ * maps, arrays become {@code Object[]}, integers become {@link Long} and other numbers become
+ * {@link Double}. Nested objects are decoded into {@link CompactMap}s.
+ * <p>
+ * Field names are interned through a small table keyed on the raw bytes, so the field names of
+ * every record (for example the hundreds of {@code "actions"} in a browse response) share one
+ * {@link String} instance, and none is allocated when the name is already known. The table is
+ * seeded with the bayeux fields and the LMS fields we read, and learns others up to a limit.
+ * <p>
+ * Messages know the length of their encoding, see {@link #getEncodedLength(Message)}.
+ * <p>
+ * Instances are not thread safe.
+ */
+class BayeuxMessageDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Field names known in advance. */
+    private static final String[] KNOWN_KEYS = {
+            // Bayeux
+            Message.ADVICE_FIELD, Message.CHANNEL_FIELD, Message.CLIENT_ID_FIELD,
+            Message.DATA_FIELD, Message.ERROR_FIELD, Message.EXT_FIELD, Message.ID_FIELD,
+            Message.INTERVAL_FIELD, Message.RECONNECT_FIELD, Message.SUBSCRIPTION_FIELD,
+            Message.SUCCESSFUL_FIELD, Message.TIMEOUT_FIELD, Message.VERSION_FIELD,
+            "connectionType", "supportedConnectionTypes", "minimumVersion", "multiple-clients",
+            "hosts", "ack", "rev",
+            // LMS
+            "actions", "add", "album", "album_id", "alarms_loop", "allowedChars", "artist",
+            "artist_id", "artwork_track_id", "artwork_url", "base", "can_seek", "canpoweroff",
+            "checkbox", "choiceStrings", "choices", "cmd", "count", "coverart", "coverid",
+            "current_title", "digital_volume_control", "displaystatus", "do", "dow", "duration",
+            "enabled", "filename", "folder_id", "folder_loop", "genre", "genre_id", "go", "goAction",
+            "help", "icon", "icon-id", "id", "image", "info total albums", "info total artists",
+            "info total genres", "info total songs", "initial", "input", "ip", "isaudio",
+            "isContextMenu", "item_loop", "itemsParams", "lastscan", "len", "line", "mac",
+            "menu", "menustatus", "mixer volume", "mode", "model", "modelname", "more", "name",
+            "nextWindow", "node", "offset", "params", "player_connected", "player count",
+            "player_ip", "player_name", "playerid", "playerindex", "players_loop", "playlist mode",
+            "playlist repeat", "playlist shuffle", "playlist_cur_index", "playlist_id",
+            "playlist_loop", "playlist_name", "playlist_timestamp", "playlist_tracks", "power",
+            "rate", "remote", "remoteMeta", "rescan", "seq_no", "showBigArtwork", "signalstrength",
+            "sleep", "slider", "softbutton1", "softbutton2", "style", "sync_master", "sync_slaves",
+            "text", "textarea", "textkey", "time", "title", "titleStyle", "track", "track_id",
+            "tracknum", "trackType", "type", "url", "uuid", "version", "volume", "weight",
+            "will_sleep_in", "window", "windowId", "windowStyle", "year",
+    };
+
+    /** Maximum number of field names held in the intern table. */
+    private static final int MAX_KEYS = 512;
+
+    /** Substituted for each malformed UTF-8 sequence in a string. */
+    private static final int REPLACEMENT_CHARACTER = 0xfffd;
+
+    /** Intern table, open addressing, size is a power of two at least twice {@link #MAX_KEYS}. */
+    private final String[] internedKeys = new String[2 * MAX_KEYS];
+    private final byte[][] internedBytes = new byte[2 * MAX_KEYS][];
+    private int internedCount;
+
+    /** Values of arrays in progress, shared by all nesting levels. */
+    private Object[] stack = new Object[64];
+    private int stackSize;
+
+    /** Scratch space to decode strings. */
+    private char[] chars = new char[256];
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    /** @return The number of bytes the message was decoded from, or -1 if it wasn't decoded here. */
+    static int getEncodedLength(Message message) {
+        return (message instanceof DecodedMessage ? ((DecodedMessage) message).encodedLength : -1);
+    }
+
+    BayeuxMessageDecoder() {
+        for (String key : KNOWN_KEYS) {
+            byte[] keyBytes = key.getBytes(UTF_8);
+            if (lookup(keyBytes, 0, keyBytes.length, hash(keyBytes, 0, keyBytes.length)) == null) {
+                intern(keyBytes, 0, keyBytes.length, key);
+            }
+        }
+    }
+
+    /**
+     * Decode a single JSON object or an array of objects into bayeux messages.
+     *
+     * @throws ParseException If the bytes are not valid JSON or not a (list of) JSON object(s).
+     */
+    List<Message.Mutable> decode(byte[] bytes, int offset, int length) throws ParseException {
+        this.bytes = bytes;
+        this.position = offset;
+        this.end = offset + length;
+        stackSize = 0;
+        try {
+            List<Message.Mutable> messages;
+            byte c = skipWhitespace();
+            if (c == '[') {
+                position++;
+                messages = new ArrayList<>();
+                if (skipWhitespace() == ']') {
+                    position++;
+                } else {
+                    while (true) {
+                        messages.add(message());
+                        c = skipWhitespace();
+                        position++;
+                        if (c == ']') break;
+                        if (c != ',') throw error("Expected ',' or ']'");
+                    }
+                }
+            } else {
+                messages = new ArrayList<>(1);
+                messages.add(message());
+            }
+            if (skipWhitespace() != 0) {
+                throw error("Unexpected data after JSON value");
+            }
+            return messages;
+        } finally {
+            this.bytes = null;
+            for (int i = 0; i < stackSize; i++) stack[i] = null;
+        }
+    }
+
+    private Message.Mutable message() throws ParseException {
+        if (skipWhitespace() != '{') {
+            throw error("Expected a JSON object");
+        }
+        int start = position;
+        DecodedMessage message = new DecodedMessage();
+        object(message);
+        message.encodedLength = position - start;
+        return message;
+    }
+
+    private Object value() throws ParseException {
+        byte c = skipWhitespace();
+        switch (c) {
+            case '{':
+                return object(new CompactMap());
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character");
+        }
+    }
+
+    private Map<String, Object> object(Map<String, Object> map) throws ParseException {
+        position++; // '{'
+        if (skipWhitespace() == '}') {
+            position++;
+            return map;
+        }
+        while (true) {
+            if (skipWhitespace() != '"') {
+                throw error("Expected a field name");
+            }
+            String key = key();
+            if (skipWhitespace() != ':') {
+                throw error("Expected ':'");
+            }
+            position++;
+            map.put(key, value());
+            byte c = skipWhitespace();
+            position++;
+            if (c == '}') return map;
+            if (c != ',') throw error("Expected ',' or '}'");
+        }
+    }
+
+    private Object[] array() throws ParseException {
+        position++; // '['
+        int base = stackSize;
+        if (skipWhitespace() == ']') {
+            position++;
+        } else {
+            while (true) {
+                Object value = value();
+                if (stackSize == stack.length) {
+                    Object[] newStack = new Object[stackSize * 2];
+                    System.arraycopy(stack, 0, newStack, 0, stackSize);
+                    stack = newStack;
+                }
+                stack[stackSize++] = value;
+                byte c = skipWhitespace();
+                position++;
+                if (c == ']') break;
+                if (c != ',') throw error("Expected ',' or ']'");
+            }
+        }
+        Object[] array = new Object[stackSize - base];
+        System.arraycopy(stack, base, array, 0, array.length);
+        for (int i = base; i < stackSize; i++) stack[i] = null;
+        stackSize = base;
+        return array;
+    }
+
+    /** Decode a field name, using the intern table if the name has no escapes. */
+    private String key() throws ParseException {
+        int start = position + 1;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte c = bytes[i];
+            if (c == '"') {
+                position = i + 1;
+                String key = lookup(bytes, start, i - start, hash);
+                return (key != null ? key : intern(bytes, start, i - start, null));
+            }
+            if (c == '\\') break;
+            hash = 31 * hash + c;
+        }
+        return string();
+    }
+
+    private String string() throws ParseException {
+        position++; // '"'
+        int length = 0;
+        while (true) {
+            if (position >= end) {
+                throw error("Unterminated string");
+            }
+            int c = bytes[position++] & 0xff;
+            if (c == '"') {
+                return new String(chars, 0, length);
+            }
+            if (length + 2 > chars.length) {
+                char[] newChars = new char[chars.length * 2];
+                System.arraycopy(chars, 0, newChars, 0, length);
+                chars = newChars;
+            }
+            if (c == '\\') {
+                if (position >= end) throw error("Unterminated string");
+                c = bytes[position++];
+                switch (c) {
+                    case '"': case '\\': case '/': chars[length++] = (char) c; break;
+                    case 'b': chars[length++] = '\b'; break;
+                    case 'f': chars[length++] = '\f'; break;
+                    case 'n': chars[length++] = '\n'; break;
+                    case 'r': chars[length++] = '\r'; break;
+                    case 't': chars[length++] = '\t'; break;
+                    case 'u': chars[length++] = (char) hex4(); break;
+                    default: throw error("Invalid escape");
+                }
+            } else if (c < 0x80) {
+                chars[length++] = (char) c;
+            } else {
+                int codePoint = multiByte(c);
+                if (codePoint < 0x10000) {
+                    chars[length++] = (char) codePoint;
+                } else {
+                    chars[length++] = Character.highSurrogate(codePoint);
+                    chars[length++] = Character.lowSurrogate(codePoint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the rest of a multi-byte UTF-8 sequence after its lead byte. A malformed sequence
+     * (an invalid lead byte, a missing continuation byte, an overlong form, a surrogate or a code
+     * point above U+10FFFF) is replaced by U+FFFD, and decoding resumes at the first byte which
+     * doesn't fit, so a closing quote is never swallowed as a continuation byte.
+     */
+    private int multiByte(int lead) {
+        int count;
+        int codePoint;
+        if (lead >= 0xc2 && lead <= 0xdf) {
+            count = 1;
+            codePoint = lead & 0x1f;
+        } else if (lead >= 0xe0 && lead <= 0xef) {
+            count = 2;
+            codePoint = lead & 0x0f;
+        } else if (lead >= 0xf0 && lead <= 0xf4) {
+            count = 3;
+            codePoint = lead & 0x07;
+        } else {
+            return REPLACEMENT_CHARACTER;
+        }
+
+        // The range of the second byte excludes overlong forms, surrogates and too large values
+        int min = (lead == 0xe0 ? 0xa0 : lead == 0xf0 ? 0x90 : 0x80);
+        int max = (lead == 0xed ? 0x9f : lead == 0xf4 ? 0x8f : 0xbf);
+        for (int i = 0; i < count; i++) {
+            if (position >= end) {
+                return REPLACEMENT_CHARACTER;
+            }
+            int b = bytes[position] & 0xff;
+            if (b < min || b > max) {
+                return REPLACEMENT_CHARACTER;
+            }
+            position++;
+            codePoint = (codePoint << 6) | (b & 0x3f);
+            min = 0x80;
+            max = 0xbf;
+        }
+        return codePoint;
+    }
+
+    private int hex4() throws ParseException {
+        if (position + 4 > end) throw error("Invalid unicode escape");
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(bytes[position++], 16);
+            if (digit < 0) throw error("Invalid unicode escape");
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private Object number() throws ParseException {
+        int start = position;
+        boolean negative = bytes[position] == '-';
+        if (negative) position++;
+        long value = 0;
+        int digits = 0;
+        while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+            value = 10 * value + (bytes[position++] - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            throw error("Invalid number");
+        }
+        if (position < end && (bytes[position] == '.' || bytes[position] == 'e' || bytes[position] == 'E')) {
+            while (position < end && isNumberChar(bytes[position])) position++;
+            try {
+                return Double.parseDouble(new String(bytes, start, position - start, UTF_8));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+        }
+        if (digits > 18) {
+            return Double.parseDouble(new String(bytes, start, position - start, UTF_8));
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isNumberChar(byte c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+    private void literal(String literal) throws ParseException {
+        int length = literal.length();
+        if (position + length > end) throw error("Invalid literal");
+        for (int i = 0; i < length; i++) {
+            if (bytes[position + i] != literal.charAt(i)) throw error("Invalid literal");
+        }
+        position += length;
+    }
+
+    /** @return The next non whitespace byte, without consuming it, or 0 at the end of input. */
+    private byte skipWhitespace() {
+        while (position < end) {
+            byte c = bytes[position];
+            if (!(c == ' ' || c == '\r' || c == '\n' || c == '\t')) {
+                return c;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(message + " at offset " + position, position);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    private static int slot(int hash) {
+        hash ^= (hash >>> 16);
+        return hash & (2 * MAX_KEYS - 1);
+    }
+
+    private String lookup(byte[] bytes, int offset, int length, int hash) {
+        for (int i = slot(hash); internedKeys[i] != null; i = (i + 1) & (2 * MAX_KEYS - 1)) {
+            byte[] candidate = internedBytes[i];
+            if (candidate.length == length && regionEquals(candidate, bytes, offset)) {
+                return internedKeys[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(byte[] candidate, byte[] bytes, int offset) {
+        for (int i = 0; i < candidate.length; i++) {
+            if (candidate[i] != bytes[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /** Add a field name to the intern table, if there is room, and return it. */
+    private String intern(byte[] bytes, int offset, int length, String key) {
+        if (key == null) {
+            key = new String(bytes, offset, length, UTF_8);
+        }
+        if (internedCount < MAX_KEYS) {
+            int i = slot(hash(bytes, offset, length));
+            while (internedKeys[i] != null) {
+                i = (i + 1) & (2 * MAX_KEYS - 1);
+            }
+            byte[] keyBytes = new byte[length];
+            System.arraycopy(bytes, offset, keyBytes, 0, length);
+            internedBytes[i] = keyBytes;
+            internedKeys[i] = key;
+            internedCount++;
+        }
+        return key;
+    }
+
+    private static class DecodedMessage extends HashMapMessage {
+        private static final long serialVersionUID = 4310948557240315474L;
+
+        private int encodedLength;
+    }
+}
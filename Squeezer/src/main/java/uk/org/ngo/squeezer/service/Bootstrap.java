@@ -0,0 +1,137 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The steps to take after connecting to the server, as a dependency graph. A step is started as
+ * soon as the steps it depends on are done, so steps which don't depend on each other go out
+ * together instead of one after the other.
+ * <p>
+ * Starting a step runs its action. A step is done when {@link #done(Enum, long)} is called for it,
+ * which may be from the action itself, or later, f.e. when the response to a request arrives.
+ * Steps without an action are just waited for.
+ * <p>
+ * The time from the start to when each step is done is kept, so the time to reach a step can be
+ * reported.
+ * <p>
+ * This class is thread safe. Actions are run without holding the lock, on the thread which
+ * started the bootstrap or completed the last dependency of the step.
+ *
+ * @param <S> The steps
+ */
+class Bootstrap<S extends Enum<S>> {
+    private final Map<S, Set<S>> dependencies;
+    private final Map<S, Runnable> actions;
+
+    private final Set<S> started;
+
+    /** Time each step was done, relative to the start. */
+    private final Map<S, Long> done;
+
+    /** Time the bootstrap was started, or -1 if it is not started. */
+    private long startedAt = -1;
+
+    Bootstrap(Class<S> steps) {
+        dependencies = new EnumMap<>(steps);
+        actions = new EnumMap<>(steps);
+        started = EnumSet.noneOf(steps);
+        done = new EnumMap<>(steps);
+    }
+
+    /**
+     * Add a step to the graph. Steps must be added before the bootstrap is started.
+     *
+     * @param action Run when the step is started, may be null
+     * @param dependsOn The steps which must be done before this step is started
+     */
+    @SafeVarargs
+    final synchronized Bootstrap<S> step(S step, @Nullable Runnable action, S... dependsOn) {
+        if (startedAt >= 0) {
+            throw new IllegalStateException("Bootstrap is started");
+        }
+        Set<S> stepDependencies = EnumSet.noneOf(step.getDeclaringClass());
+        Collections.addAll(stepDependencies, dependsOn);
+        dependencies.put(step, stepDependencies);
+        if (action != null) {
+            actions.put(step, action);
+        }
+        return this;
+    }
+
+    /** Start the steps which don't depend on other steps. */
+    void start(long now) {
+        List<Runnable> ready;
+        synchronized (this) {
+            if (startedAt >= 0) {
+                return;
+            }
+            startedAt = now;
+            ready = takeReady();
+        }
+        run(ready);
+    }
+
+    /**
+     * Record that a step is done, and start the steps which were waiting for it. Steps which are
+     * already done, or which are not part of the graph, are ignored.
+     */
+    void done(S step, long now) {
+        List<Runnable> ready;
+        synchronized (this) {
+            if (startedAt < 0 || !dependencies.containsKey(step) || done.containsKey(step)) {
+                return;
+            }
+            started.add(step);
+            done.put(step, now - startedAt);
+            ready = takeReady();
+        }
+        run(ready);
+    }
+
+    synchronized boolean isDone(S step) {
+        return done.containsKey(step);
+    }
+
+    /** @return Milliseconds from the start until the step was done, or -1 if it is not done. */
+    synchronized long getTime(S step) {
+        Long time = done.get(step);
+        return (time != null ? time : -1);
+    }
+
+    /** Mark the steps which can now start as started, and return their actions. */
+    private List<Runnable> takeReady() {
+        List<Runnable> ready = new ArrayList<>();
+        for (Map.Entry<S, Set<S>> entry : dependencies.entrySet()) {
+            S step = entry.getKey();
+            if (!started.contains(step) && done.keySet().containsAll(entry.getValue())) {
+                started.add(step);
+                Runnable action = actions.get(step);
+                if (action != null) {
+                    ready.add(action);
+                }
+            }
+        }
+        return ready;
+    }
+
+    private static void run(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "Bootstrap" + done;
+    }
+}
@@ -0,0 +1,161 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of browse responses, so going back and forth between screens does
+ * not request the same items again.
+ * <p>
+ * Only responses which change when the server rescans the library, or when the playlist of a
+ * player changes, are cached; see {@link #getScope(List, Map)}. Radio, favorites, apps, menus,
+ * search results, random selections and saved playlists are volatile, so they are never cached.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <V> Cached responses
+ */
+class BrowseCache<V> {
+    /** What a cached response depends on. */
+    enum Scope {
+        /** The response is not cached. */
+        NONE,
+        /** The response changes only when the library is rescanned. */
+        LIBRARY,
+        /** The response changes with the playlist of the player. */
+        PLAYLIST,
+    }
+
+    private final Map<String, Entry<V>> entries;
+
+    /** Last scan of the library, as reported in server status. */
+    private String lastScan;
+
+    private int hits;
+    private int misses;
+
+    BrowseCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /** @return What the response to the given command depends on, or NONE if it may not be cached. */
+    @NonNull
+    static Scope getScope(List<String> cmd, Map<String, Object> params) {
+        if (cmd.isEmpty() || params.containsKey("search")) {
+            return Scope.NONE;
+        }
+        switch (cmd.get(0)) {
+            case "browselibrary":
+            case "artists":
+            case "albums":
+            case "genres":
+            case "years":
+            case "titles":
+            case "songs":
+            case "musicfolder":
+                return isVolatile(params) ? Scope.NONE : Scope.LIBRARY;
+            case "status":
+                return Scope.PLAYLIST;
+            default:
+                return Scope.NONE;
+        }
+    }
+
+    /**
+     * @return True for library queries whose response changes without a rescan: random albums
+     * or songs, and the saved playlists.
+     */
+    private static boolean isVolatile(Map<String, Object> params) {
+        Object mode = params.get("mode");
+        return "random".equals(params.get("sort"))
+                || "randomalbums".equals(mode)
+                || "playlists".equals(mode);
+    }
+
+    @Nullable
+    synchronized V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Add a response to the cache.
+     *
+     * @param playerId The player the response is for, or null.
+     */
+    synchronized void put(String key, Scope scope, @Nullable String playerId, V value) {
+        if (scope != Scope.NONE) {
+            entries.put(key, new Entry<>(scope, playerId, value));
+        }
+    }
+
+    /**
+     * Forget the library if it is being rescanned, or has been rescanned since it was last
+     * called.
+     *
+     * @param lastScan Time of the last scan as reported by the server
+     * @param rescanning True if the server is scanning the library
+     */
+    synchronized void setLibraryState(@Nullable String lastScan, boolean rescanning) {
+        if (rescanning || (lastScan != null && !lastScan.equals(this.lastScan))) {
+            remove(Scope.LIBRARY, null);
+        }
+        this.lastScan = lastScan;
+    }
+
+    /** Forget the playlist of a player, because it has changed. */
+    synchronized void invalidatePlaylist(String playerId) {
+        remove(Scope.PLAYLIST, playerId);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        lastScan = null;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Scope scope, @Nullable String playerId) {
+        for (Iterator<Entry<V>> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry<V> entry = iterator.next();
+            if (entry.scope == scope && (playerId == null || playerId.equals(entry.playerId))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "BrowseCache{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+
+    private static class Entry<V> {
+        private final Scope scope;
+        private final String playerId;
+        private final V value;
+
+        private Entry(Scope scope, String playerId, V value) {
+            this.scope = scope;
+            this.playerId = playerId;
+            this.value = value;
+        }
+    }
+}
@@ -16,9 +16,12 @@
 
 package uk.org.ngo.squeezer.service;
 
+import android.content.Context;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -32,7 +35,6 @@ import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
 import org.cometd.client.BayeuxClient;
-import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.HttpClientTransport;
 import org.cometd.client.transport.TransportListener;
 import org.eclipse.jetty.client.HttpClient;
@@ -40,6 +42,7 @@ import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.util.B64Code;
 
+import java.io.IOException;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.net.URI;
@@ -48,19 +51,31 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
-import de.greenrobot.event.EventBus;
+import org.greenrobot.eventbus.Subscribe;
 import uk.org.ngo.squeezer.Preferences;
+import uk.org.ngo.squeezer.R;
+import uk.org.ngo.squeezer.Squeezer;
 import uk.org.ngo.squeezer.Util;
 import uk.org.ngo.squeezer.model.AlertWindow;
 import uk.org.ngo.squeezer.model.DisplayMessage;
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
+import uk.org.ngo.squeezer.library.LibraryDatabase;
+import uk.org.ngo.squeezer.library.LibraryMirror;
 import uk.org.ngo.squeezer.model.Alarm;
 import uk.org.ngo.squeezer.model.AlarmPlaylist;
 import uk.org.ngo.squeezer.model.CurrentPlaylistItem;
@@ -70,13 +85,16 @@ import uk.org.ngo.squeezer.model.Player;
 import uk.org.ngo.squeezer.model.PlayerState;
 import uk.org.ngo.squeezer.model.SlimCommand;
 import uk.org.ngo.squeezer.model.Song;
+import uk.org.ngo.squeezer.service.PublishQueue.Priority;
 import uk.org.ngo.squeezer.service.event.AlertEvent;
 import uk.org.ngo.squeezer.service.event.DisplayEvent;
 import uk.org.ngo.squeezer.service.event.HandshakeComplete;
+import uk.org.ngo.squeezer.service.event.HomeMenuEvent;
+import uk.org.ngo.squeezer.service.event.PlayerChanges;
 import uk.org.ngo.squeezer.model.MenuStatusMessage;
-import uk.org.ngo.squeezer.service.event.PlayerVolume;
 import uk.org.ngo.squeezer.service.event.RegisterSqueezeNetwork;
-import uk.org.ngo.squeezer.util.Reflection;
+import uk.org.ngo.squeezer.service.event.SongTimeChanged;
+import uk.org.ngo.squeezer.util.ImageFetcher;
 import uk.org.ngo.squeezer.util.SendWakeOnLan;
 
 class CometClient extends BaseClient {
@@ -115,6 +133,27 @@ class CometClient extends BaseClient {
     // Maximum time for wait replies for server capabilities
     private static final long HANDSHAKE_TIMEOUT = 4000;
 
+    /** Maximum time to wait for the response to a request, after it has been published. */
+    private static final long REQUEST_TIMEOUT = 30000;
+
+    /**
+     * Maximum time to try to resume the session after the connection is lost, before giving up
+     * and disconnecting.
+     */
+    private static final long RESUME_TIMEOUT = 30000;
+
+    /** Milliseconds between requests for the status of players which are not subscribed, but shown. */
+    private static final long POLL_INTERVAL = 10000;
+
+    /** Minimum milliseconds between connect messages in low-power mode. */
+    private static final long LOW_POWER_CONNECT_INTERVAL = 10000;
+
+    /** Resolution of request deadlines. */
+    private static final long REQUEST_TIMER_TICK = 500;
+
+    /** Maximum number of requests waiting for a response. */
+    private static final int MAX_PENDING_REQUESTS = 200;
+
 
     /** Handler for off-main-thread work. */
     @NonNull
@@ -130,14 +169,128 @@ class CometClient extends BaseClient {
     @Nullable
     private BayeuxClient mBayeuxClient;
 
+    /**
+     * Requests waiting for a response, keyed on the response channel. The response and the
+     * failure of a request race to remove it, so only the winner handles it.
+     */
     private final Map<String, Request> mPendingRequests
             = new ConcurrentHashMap<>();
 
+    /** Deadlines of published requests, keyed on the response channel. Handler thread only. */
+    private final TimerWheel<String> mRequestDeadlines = new TimerWheel<>(REQUEST_TIMER_TICK, 128);
+
+    /** Subscriber to the event bus. */
+    private final EventHandler mEventHandler = new EventHandler();
+
+    /** Number of requests which got no response in time. */
+    private final AtomicInteger mTimedOutRequests = new AtomicInteger();
+
+    /** Number of requests rejected because too many were waiting for a response. */
+    private final AtomicInteger mRejectedRequests = new AtomicInteger();
+
+    /** Number of requests which failed because the connection was lost. */
+    private final AtomicInteger mDisconnectedRequests = new AtomicInteger();
+
+    /** Number of requests cancelled before they were published. */
+    private final AtomicInteger mCancelledRequests = new AtomicInteger();
+
+    /** The highest number of requests waiting for a response at the same time. */
+    private final AtomicInteger mMaxPendingRequests = new AtomicInteger();
+
+    /**
+     * Time the connection was lost, while the session is being resumed, see
+     * {@link SystemClock#elapsedRealtime()}. 0 if the session is not being resumed.
+     */
+    private final AtomicLong mResumeStartedAt = new AtomicLong();
+
+    /** Time to resume sessions, where the server still knew the client id. */
+    private final PublishQueue.WaitStatistics mResumeTimes = new PublishQueue.WaitStatistics();
+
+    /** Time to resume sessions, where the server had forgotten the client id. */
+    private final PublishQueue.WaitStatistics mRehandshakeTimes = new PublishQueue.WaitStatistics();
+
+    /** Number of sessions which could not be resumed in time. */
+    private final AtomicInteger mFailedResumes = new AtomicInteger();
+
+    /** Steps after connecting, see {@link #startBootstrap(String)}. */
+    private enum BootstrapStep {
+        /** Request and subscribe to server status. Done when server status is received. */
+        SERVER_STATUS,
+        /** Subscribe to the status, and request the home menu, of the last used player. */
+        LAST_PLAYER,
+        /** The status of the last used player is received before server status. */
+        LAST_PLAYER_STATUS,
+        /** Prefetch the artwork of the current song of the last used player. */
+        ARTWORK,
+        /** The home menu of the active player is received. */
+        HOME_MENU,
+        /** The home screen can be used. */
+        INTERACTIVE,
+    }
+
+    /** Steps after connecting to the server. Replaced for each connection. */
+    private volatile Bootstrap<BootstrapStep> mBootstrap = new Bootstrap<>(BootstrapStep.class);
+
+    /**
+     * The player which was used last, while connecting. It is likely to be the active player, so
+     * it is used before server status tells which players there are.
+     */
+    @Nullable
+    private volatile Player mLastPlayer;
+
+    /** Status of the last used player, received before server status. */
+    private final AtomicReference<Message> mLastPlayerStatus = new AtomicReference<>();
+
+    /** Home menu of the last used player, until the service asks for it. */
+    private final AtomicReference<LastPlayerMenu> mLastPlayerMenu = new AtomicReference<>();
+
+    /** Time from the handshake until the home screen can be used. */
+    private final PublishQueue.WaitStatistics mTimeToInteractive = new PublishQueue.WaitStatistics();
+
+    /** Players subscribed to display status. */
+    private final Set<String> mDisplayStatusPlayers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Players subscribed to menu status. */
+    private final Set<String> mMenuStatusPlayers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Players whose status is requested every {@link #POLL_INTERVAL}, see {@link PlayerState.PlayerSubscriptionType#NOTIFY_INTERVAL}. */
+    private final Set<String> mPolledPlayers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** See {@link #setLowPower(boolean)}. */
+    private volatile boolean mLowPower;
+
+    /** The transport of the current connection, if any. */
+    private volatile HttpStreamingTransport mTransport;
+
+    /**
+     * Browse requests waiting for a response, keyed on the response channel, or on a key from
+     * {@link #mMirrorReadId} for reads from the library mirror.
+     */
     private final Map<String, BrowseRequest<?>> mPendingBrowseRequests
             = new ConcurrentHashMap<>();
 
-    private final Queue<PublishMessage> mCommandQueue = new LinkedList<>();
-    private boolean mCurrentCommand;
+    /** Identifies reads from the library mirror, so they can be cancelled. */
+    private final AtomicInteger mMirrorReadId = new AtomicInteger();
+
+    /**
+     * Browse requests waiting for their first response, keyed on the normalized request, so
+     * identical requests can share the response. Guarded by itself.
+     */
+    private final Map<String, BrowseRequest<?>> mInFlightBrowseRequests = new HashMap<>();
+
+    /** Messages to publish, and the ones published but not yet acknowledged. */
+    private final PublishQueue<PublishMessage> mPublishQueue
+            = new PublishQueue<>(Squeezer.getContext().getResources().getInteger(R.integer.PublishWindow));
+
+    /** Chooses the size of browse requests. */
+    private final PageSizer mPageSizer = new PageSizer(mPageSize);
+
+    /** Number of pages of a full list requested at the same time. */
+    private final int mFullListConcurrency = Squeezer.getContext().getResources().getInteger(R.integer.FullListConcurrency);
+
+    /** Local copy of library views, if enabled. */
+    @Nullable
+    private volatile LibraryMirror mLibraryMirror;
 
     private final PublishListener mPublishListener = new PublishListener();
 
@@ -145,7 +298,7 @@ class CometClient extends BaseClient {
     // asynchronous responses are received.
     private volatile int mCorrelationId = 0;
 
-    CometClient(@NonNull EventBus eventBus) {
+    CometClient(@NonNull SqueezeService.EventBus eventBus) {
         super(eventBus);
 
         HandlerThread handlerThread = new HandlerThread(SqueezeService.class.getSimpleName());
@@ -157,7 +310,8 @@ class CometClient extends BaseClient {
                 new AlarmPlaylistsListener(),
                 new SongListener(),
                 new MusicFolderListener(),
-                new JiveItemListener()
+                new JiveItemListener(),
+                new LibraryRecordListener()
         );
         ImmutableMap.Builder<Class<?>, ItemListener<?>> builder = ImmutableMap.builder();
         for (ItemListener<?> itemListener : itemListeners) {
@@ -179,7 +333,7 @@ class CometClient extends BaseClient {
                         if (volume != null) {
                             int newVolume = Integer.parseInt(volume);
                             player.getPlayerState().setCurrentVolume(newVolume);
-                            mEventBus.post(new PlayerVolume(newVolume, player));
+                            mPlayerEvents.add(player, PlayerChanges.VOLUME);
                         } else {
                             // LMS delays player status for volume changes, so order it immediately to respond faster to user input
                             command(player, new String[]{"mixer", "volume", "?"}, Collections.emptyMap());
@@ -223,8 +377,8 @@ class CometClient extends BaseClient {
                 }
                 Log.i(TAG, "Connecting to: " + username + "@" + serverAddress.address());
 
-                if (!mEventBus.isRegistered(CometClient.this)) {
-                    mEventBus.register(CometClient.this);
+                if (!mEventBus.isRegistered(mEventHandler)) {
+                    mEventBus.register(mEventHandler);
                 }
                 mConnectionState.setConnectionState(ConnectionState.CONNECTION_STARTED);
                 final boolean isSqueezeNetwork = serverAddress.squeezeNetwork;
@@ -270,7 +424,7 @@ class CometClient extends BaseClient {
 
                 Map<String, Object> options = new HashMap<>();
                 options.put(HttpClientTransport.MAX_NETWORK_DELAY_OPTION, LONG_POLLING_TIMEOUT);
-                ClientTransport clientTransport;
+                HttpStreamingTransport clientTransport;
                 if (!isSqueezeNetwork) {
                     clientTransport = new HttpStreamingTransport(url, options, httpClient) {
                         @Override
@@ -298,11 +452,13 @@ class CometClient extends BaseClient {
                         }
                     };
                 }
+                clientTransport.setMinConnectInterval(mLowPower ? LOW_POWER_CONNECT_INTERVAL : 0);
+                mTransport = clientTransport;
                 mBayeuxClient = new SqueezerBayeuxClient(url, clientTransport);
                 mBayeuxClient.addExtension(new SqueezerBayeuxExtension());
                 mBayeuxClient.getChannel(Channel.META_HANDSHAKE).addListener((ClientSessionChannel.MessageListener) (channel, message) -> {
                     if (message.isSuccessful()) {
-                        onConnected(isSqueezeNetwork);
+                        onConnected(isSqueezeNetwork, finishResume(true));
                     } else {
                         Log.w(TAG, channel + ": " + message.getJSON());
 
@@ -323,28 +479,53 @@ class CometClient extends BaseClient {
                     }
                 });
                 mBayeuxClient.getChannel(Channel.META_CONNECT).addListener((ClientSessionChannel.MessageListener) (channel, message) -> {
-                    if (!message.isSuccessful() && (getAdviceAction(message.getAdvice()) == null)) {
+                    if (message.isSuccessful()) {
+                        finishResume(false);
+                    } else if (getAdviceAction(message.getAdvice()) == null) {
                         // Advices are handled internally by the bayeux protocol, so skip these here
                         Log.w(TAG, channel + ": " + message.getJSON());
-                        disconnect();
+                        if (!startResume()) {
+                            disconnect();
+                        }
                     }
                 });
 
                 mBayeuxClient.handshake();
             }
 
-            private void onConnected(boolean isSqueezeNetwork) {
-                Log.i(TAG, "Connected, start learning server capabilities");
-                mCurrentCommand = false;
-                mConnectionState.setConnectionState(ConnectionState.CONNECTION_COMPLETED);
-
+            /**
+             * @param resumed True if this is a new handshake of a session which was being resumed.
+             *     The state of the session is kept, and the subscriptions are made again.
+             */
+            private void onConnected(boolean isSqueezeNetwork, boolean resumed) {
                 String clientId = mBayeuxClient.getId();
+                if (resumed) {
+                    Log.i(TAG, "Resumed session as " + clientId + ", subscribe again");
+                    // Responses to the old client id will never arrive
+                    mBackgroundHandler.post(() -> failStaleRequests(clientId));
+                } else {
+                    Log.i(TAG, "Connected, start learning server capabilities");
+                    mBrowseCache.clear();
+                    LibraryMirror libraryMirror = mLibraryMirror;
+                    if (libraryMirror != null) {
+                        // Don't sync until the server tells the state of the library
+                        libraryMirror.setLibraryState(mUrlPrefix, null, false);
+                    }
+                    mDisplayStatusPlayers.clear();
+                    mMenuStatusPlayers.clear();
+                    mBackgroundHandler.sendEmptyMessage(MSG_PUBLISH_RESET);
+                    mConnectionState.setConnectionState(ConnectionState.CONNECTION_COMPLETED);
+                }
 
                 mBayeuxClient.getChannel(String.format(CHANNEL_SLIM_REQUEST_RESPONSE_FORMAT, clientId, "*")).subscribe((channel, message) -> {
-                    Request request = mPendingRequests.get(message.getChannel());
+                    Request request = mPendingRequests.remove(message.getChannel());
                     if (request != null) {
-                        request.callback.onResponse(request.player, request, message);
-                        mPendingRequests.remove(message.getChannel());
+                        if (request.localChange != 0) {
+                            acknowledgeLocalState(request.player, request.localChange);
+                        }
+                        if (request.callback != null) {
+                            request.callback.onResponse(request.player, request, message);
+                        }
                     }
                 });
 
@@ -356,15 +537,14 @@ class CometClient extends BaseClient {
 
                 mBayeuxClient.getChannel(String.format(CHANNEL_MENU_STATUS_FORMAT, clientId, "*")).subscribe(CometClient.this::parseMenuStatus);
 
-                // Request server status
-                publishMessage(serverStatusRequest(), CHANNEL_SLIM_REQUEST, String.format(CHANNEL_SERVER_STATUS_FORMAT, clientId), null);
-
-                // Subscribe to server changes
-                {
-                    Request request = serverStatusRequest().param("subscribe", "60");
-                    publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, String.format(CHANNEL_SERVER_STATUS_FORMAT, clientId), null);
+                if (resumed) {
+                    requestServerStatus(clientId);
+                    resubscribe();
+                    return;
                 }
 
+                startBootstrap(clientId);
+
                 // Set a timeout for the handshake
                 mBackgroundHandler.removeMessages(MSG_HANDSHAKE_TIMEOUT);
                 mBackgroundHandler.sendEmptyMessageDelayed(MSG_HANDSHAKE_TIMEOUT, HANDSHAKE_TIMEOUT);
@@ -378,6 +558,212 @@ class CometClient extends BaseClient {
         });
     }
 
+    /**
+     * Start the steps after connecting. Server status, and the status and home menu of the last
+     * used player, are requested together. When server status tells the players, the service
+     * chooses the active player and requests its status and home menu, which will then usually
+     * have been received already.
+     */
+    private void startBootstrap(String clientId) {
+        mLastPlayer = null;
+        mLastPlayerStatus.set(null);
+        mLastPlayerMenu.set(null);
+
+        final Bootstrap<BootstrapStep> bootstrap = new Bootstrap<>(BootstrapStep.class);
+        bootstrap.step(BootstrapStep.SERVER_STATUS, () -> requestServerStatus(clientId))
+                .step(BootstrapStep.LAST_PLAYER, () -> {
+                    requestLastPlayer();
+                    bootstrap.done(BootstrapStep.LAST_PLAYER, SystemClock.elapsedRealtime());
+                })
+                .step(BootstrapStep.LAST_PLAYER_STATUS, null, BootstrapStep.LAST_PLAYER)
+                .step(BootstrapStep.ARTWORK, () -> {
+                    prefetchArtwork(mLastPlayerStatus.get());
+                    bootstrap.done(BootstrapStep.ARTWORK, SystemClock.elapsedRealtime());
+                }, BootstrapStep.LAST_PLAYER_STATUS)
+                .step(BootstrapStep.HOME_MENU, null)
+                .step(BootstrapStep.INTERACTIVE, () -> {
+                    bootstrap.done(BootstrapStep.INTERACTIVE, SystemClock.elapsedRealtime());
+                    mTimeToInteractive.add(bootstrap.getTime(BootstrapStep.INTERACTIVE));
+                    mLastPlayerMenu.set(null);
+                    Log.i(TAG, "Home screen ready: " + bootstrap);
+                }, BootstrapStep.SERVER_STATUS, BootstrapStep.HOME_MENU);
+        mBootstrap = bootstrap;
+        bootstrap.start(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Request server status, and subscribe to changes. The request needn't wait for the
+     * subscription, so they are published together.
+     */
+    private void requestServerStatus(String clientId) {
+        String serverStatusChannel = String.format(CHANNEL_SERVER_STATUS_FORMAT, clientId);
+        publishMessage(serverStatusRequest(), CHANNEL_SLIM_REQUEST, serverStatusChannel, null, Priority.INTERACTIVE, null);
+
+        Request request = serverStatusRequest().param("subscribe", "60");
+        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, serverStatusChannel, serverStatusChannel, Priority.INTERACTIVE, null);
+    }
+
+    /**
+     * Subscribe to the status, and request the home menu, of the player which was used last, if
+     * any. The service will most likely choose it as the active player when the players are known.
+     */
+    private void requestLastPlayer() {
+        String playerId = Squeezer.getContext().getSharedPreferences(Preferences.NAME, Context.MODE_PRIVATE)
+                .getString(Preferences.KEY_LAST_PLAYER, null);
+        if (playerId == null) {
+            return;
+        }
+        Player player = new Player(Collections.singletonMap("playerid", playerId));
+        mLastPlayer = player;
+        subscribePlayerStatus(player, PlayerState.PlayerSubscriptionType.NOTIFY_ON_CHANGE);
+
+        // Same request as the service makes for the home menu, see SqueezeService.changeActivePlayer
+        LastPlayerMenu lastPlayerMenu = new LastPlayerMenu();
+        BrowseRequest<JiveItem> browseRequest = new BrowseRequest<>(player, new String[]{"menu"},
+                Collections.singletonMap("direct", "1"), 0, ADAPTIVE_PAGE_SIZE, lastPlayerMenu);
+        lastPlayerMenu.key = inFlightKey(browseRequest, getItemListener(browseRequest));
+        internalRequestItems(browseRequest);
+        mLastPlayerMenu.set(lastPlayerMenu);
+    }
+
+    /** Load the artwork of the current song in a player status into the image cache. */
+    private void prefetchArtwork(@Nullable Message playerStatus) {
+        CurrentPlaylistItem currentSong = (playerStatus != null ? getCurrentSong(playerStatus.getDataAsMap()) : null);
+        if (currentSong == null || !currentSong.hasArtwork()) {
+            return;
+        }
+        Uri artwork = currentSong.getIcon();
+        Context context = Squeezer.getContext();
+        // The image fetcher must be used from the main thread. The size is the one of the notification.
+        new Handler(Looper.getMainLooper()).post(() -> ImageFetcher.getInstance(context).loadImage(artwork,
+                context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                context.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height),
+                (data, bitmap) -> {
+                }));
+    }
+
+    /**
+     * Receives the home menu requested for the last used player, until the service asks for it,
+     * then passes what is received so far, and the rest as it is received, to the service.
+     */
+    private class LastPlayerMenu implements IServiceItemListCallback<JiveItem> {
+        /** See {@link #inFlightKey(BrowseRequest, ItemListener)} */
+        private String key;
+
+        private final List<Consumer<IServiceItemListCallback<JiveItem>>> received = new ArrayList<>();
+
+        @Nullable
+        private IServiceItemListCallback<JiveItem> callback;
+
+        @Override
+        public Class<JiveItem> getDataType() {
+            return JiveItem.class;
+        }
+
+        @Override
+        public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
+            deliver(target -> target.onItemsReceived(count, start, parameters, items, dataType));
+        }
+
+        @Override
+        public void onItemsFailed(int start, Exception cause) {
+            deliver(target -> target.onItemsFailed(start, cause));
+        }
+
+        private synchronized void deliver(Consumer<IServiceItemListCallback<JiveItem>> event) {
+            if (callback != null) {
+                event.accept(callback);
+            } else {
+                received.add(event);
+            }
+        }
+
+        synchronized void setCallback(IServiceItemListCallback<JiveItem> callback) {
+            this.callback = callback;
+            for (Consumer<IServiceItemListCallback<JiveItem>> event : received) {
+                event.accept(callback);
+            }
+            received.clear();
+        }
+
+        @Override
+        public Object getClient() {
+            return CometClient.this;
+        }
+    }
+
+    /**
+     * Subscriber to the events the client needs. It is a public class, so it is covered by the
+     * generated subscriber index, see {@link SqueezeService.EventBus}.
+     */
+    public class EventHandler {
+        @Subscribe
+        public void onEvent(@SuppressWarnings("unused") HomeMenuEvent event) {
+            mBootstrap.done(BootstrapStep.HOME_MENU, SystemClock.elapsedRealtime());
+        }
+
+        @Subscribe
+        public void onEvent(@SuppressWarnings("unused") HandshakeComplete event) {
+            mBackgroundHandler.removeMessages(MSG_HANDSHAKE_TIMEOUT);
+        }
+    }
+
+    /**
+     * Try to resume the session after the connection to the server is lost, instead of
+     * disconnecting. The bayeux client keeps trying to connect with the same client id, and
+     * handshakes again if the server has forgotten it. Meanwhile the state of the session is kept.
+     *
+     * @return False if the session can't be resumed, because the handshake is not complete.
+     */
+    private boolean startResume() {
+        if (mConnectionState.getServerVersion() == null) {
+            return false;
+        }
+        if (mResumeStartedAt.compareAndSet(0, SystemClock.elapsedRealtime())) {
+            Log.i(TAG, "Connection lost, resuming session");
+            mBackgroundHandler.sendEmptyMessageDelayed(MSG_RESUME_TIMEOUT, RESUME_TIMEOUT);
+        }
+        return true;
+    }
+
+    /**
+     * The bayeux client is connected again.
+     *
+     * @param rehandshake True if the server had forgotten the client id, so a new handshake was
+     *     done
+     * @return True if the session was being resumed.
+     */
+    private boolean finishResume(boolean rehandshake) {
+        long startedAt = mResumeStartedAt.getAndSet(0);
+        if (startedAt == 0) {
+            return false;
+        }
+        mBackgroundHandler.removeMessages(MSG_RESUME_TIMEOUT);
+        long millis = SystemClock.elapsedRealtime() - startedAt;
+        (rehandshake ? mRehandshakeTimes : mResumeTimes).add(millis);
+        Log.i(TAG, "Session resumed in " + millis + "ms" + (rehandshake ? " with a new handshake" : ""));
+
+        // Messages in flight when the connection was lost may never be acknowledged
+        mBackgroundHandler.sendEmptyMessage(MSG_PUBLISH_RESET);
+        return true;
+    }
+
+    /** Make the subscriptions which were active before a new handshake, with the new client id. */
+    private void resubscribe() {
+        for (Player player : mConnectionState.getPlayers().values()) {
+            PlayerState.PlayerSubscriptionType subscriptionType = player.getPlayerState().getSubscriptionType();
+            if (subscriptionType != PlayerState.PlayerSubscriptionType.NOTIFY_NONE) {
+                subscribePlayerStatus(player, subscriptionType);
+            }
+            if (mDisplayStatusPlayers.contains(player.getId())) {
+                subscribeDisplayStatus(player, true);
+            }
+            if (mMenuStatusPlayers.contains(player.getId())) {
+                subscribeMenuStatus(player);
+            }
+        }
+    }
+
     private boolean needRegister() {
         return mBayeuxClient.getId().startsWith("1X");
     }
@@ -390,6 +776,9 @@ class CometClient extends BaseClient {
         // so we check the server version which is also set from server status
         boolean firstTimePlayersReceived = (getConnectionState().getServerVersion() == null);
 
+        String lastScan = Util.getString(data, "lastscan");
+        boolean rescanning = Util.getInt(data, "rescan") == 1;
+        mBrowseCache.setLibraryState(lastScan, rescanning);
         getConnectionState().setMediaDirs(Util.getStringArray(data, ConnectionState.MEDIA_DIRS));
         getConnectionState().setServerVersion((String) data.get("version"));
         Object[] item_data = (Object[]) data.get("players_loop");
@@ -406,15 +795,38 @@ class CometClient extends BaseClient {
             }
         }
 
+        Player lastPlayer = mLastPlayer;
+        Player player = (lastPlayer != null ? players.get(lastPlayer.getId()) : null);
+        if (player != null && firstTimePlayersReceived) {
+            // The subscription to the status of the last used player is already made
+            player.getPlayerState().setSubscriptionType(lastPlayer.getPlayerState().getSubscriptionType());
+        }
+
         Map<String, Player> currentPlayers = mConnectionState.getPlayers();
         if (firstTimePlayersReceived || !players.equals(currentPlayers)) {
             mConnectionState.setPlayers(players);
         } else {
-            for (Player player : players.values()) {
-                PlayerState currentPlayerState = currentPlayers.get(player.getId()).getPlayerState();
-                if (!player.getPlayerState().prefs.equals(currentPlayerState.prefs)) {
-                    currentPlayerState.prefs = player.getPlayerState().prefs;
-                    postPlayerStateChanged(player);
+            for (Player changed : players.values()) {
+                PlayerState currentPlayerState = currentPlayers.get(changed.getId()).getPlayerState();
+                if (!changed.getPlayerState().prefs.equals(currentPlayerState.prefs)) {
+                    currentPlayerState.prefs = changed.getPlayerState().prefs;
+                    postPlayerStateChanged(changed);
+                }
+            }
+        }
+
+        mBootstrap.done(BootstrapStep.SERVER_STATUS, SystemClock.elapsedRealtime());
+        Message lastPlayerStatus = mLastPlayerStatus.getAndSet(null);
+        if (lastPlayerStatus != null) {
+            parsePlayerStatus(null, lastPlayerStatus);
+        }
+
+        LibraryMirror libraryMirror = mLibraryMirror;
+        if (libraryMirror != null) {
+            for (LibraryDatabase.View view : libraryMirror.setLibraryState(mUrlPrefix, lastScan, rescanning)) {
+                Player viewPlayer = (view.playerId != null ? mConnectionState.getPlayer(view.playerId) : null);
+                if ((view.playerId == null || viewPlayer != null) && libraryMirror.startSync(view.key, view.playerId, view.cmd, view.params)) {
+                    syncLibraryView(libraryMirror, view.key, viewPlayer, view.cmd, view.params);
                 }
             }
         }
@@ -423,6 +835,15 @@ class CometClient extends BaseClient {
     private void parsePlayerStatus(ClientSessionChannel channel, Message message) {
         String[] channelParts = mSlashSplitPattern.split(message.getChannel());
         String playerId = channelParts[channelParts.length - 1];
+
+        Player lastPlayer = mLastPlayer;
+        if (lastPlayer != null && lastPlayer.getId().equals(playerId) && !mBootstrap.isDone(BootstrapStep.SERVER_STATUS)) {
+            // The players are not known yet, so keep the status until they are
+            mLastPlayerStatus.set(message);
+            mBootstrap.done(BootstrapStep.LAST_PLAYER_STATUS, SystemClock.elapsedRealtime());
+            return;
+        }
+
         Player player = mConnectionState.getPlayer(playerId);
 
         // XXX: Can we ever see a status for a player we don't know about?
@@ -431,24 +852,35 @@ class CometClient extends BaseClient {
             return;
 
         Map<String, Object> messageData = message.getDataAsMap();
+        PlayerState playerState = player.getPlayerState();
+        // Most status updates are for the same song, so only parse it when it has changed
+        CurrentPlaylistItem currentSong = (isSameSong(playerState, messageData) ? playerState.getCurrentSong() : getCurrentSong(messageData));
+        parseStatus(player, currentSong, messageData);
+    }
 
-        CurrentPlaylistItem currentSong = null;
-        Object[] item_data = (Object[]) messageData.get("item_loop");
-        if (item_data != null && item_data.length > 0) {
-            Map<String, Object> record = (Map<String, Object>) item_data[0];
-
-            patchUrlPrefix(record);
-            record.put("base", messageData.get("base"));
-            currentSong = new CurrentPlaylistItem(record);
-            record.remove("base");
+    @Nullable
+    private CurrentPlaylistItem getCurrentSong(Map<String, Object> messageData) {
+        Map<String, Object> record = getSongRecord(messageData);
+        if (record == null) {
+            return null;
         }
-        parseStatus(player, currentSong, messageData);
+
+        patchUrlPrefix(record);
+        record.put("base", messageData.get("base"));
+        CurrentPlaylistItem currentSong = new CurrentPlaylistItem(record);
+        record.remove("base");
+        return currentSong;
     }
 
+    /**
+     * Post the position in the song, and post it again every second while the player is playing
+     * and there are subscribers to {@link SongTimeChanged}. Others read
+     * {@link Player#getTrackPosition(long)} when they need it.
+     */
     @Override
     protected void postSongTimeChanged(Player player) {
         super.postSongTimeChanged(player);
-        if (player.getPlayerState().isPlaying()) {
+        if (player.getPlayerState().isPlaying() && mEventBus.hasSubscriberForEvent(SongTimeChanged.class)) {
             mBackgroundHandler.removeMessages(MSG_TIME_UPDATE);
             mBackgroundHandler.sendEmptyMessageDelayed(MSG_TIME_UPDATE, 1000);
         }
@@ -522,19 +954,25 @@ class CometClient extends BaseClient {
                 // TODO remote logging and possible other handling
                 Log.e(TAG, channel + ": " + message.getJSON());
             }
-            mBackgroundHandler.sendEmptyMessage(MSG_PUBLISH_RESPONSE_RECIEVED);
         }
     }
 
     private abstract class ItemListener<T> extends BaseListHandler<T> implements ResponseHandler {
-        void parseMessage(String countName, String itemLoopName, Message message) {
+        ItemListener(Class<T> dataType, Function<Map<String, Object>, T> factory) {
+            super(dataType, factory);
+        }
+
+        void parseMessage(Request request, String countName, String itemLoopName, Message message) {
             @SuppressWarnings("unchecked")
-            BrowseRequest<T> browseRequest = (BrowseRequest<T>) mPendingBrowseRequests.get(message.getChannel());
+            BrowseRequest<T> browseRequest = (BrowseRequest<T>) mPendingBrowseRequests.remove(message.getChannel());
             if (browseRequest == null) {
                 return;
             }
+            removeInFlight(browseRequest);
+            if (browseRequest.isCancelled()) {
+                return;
+            }
 
-            mPendingBrowseRequests.remove(message.getChannel());
             clear();
             Map<String, Object> data = message.getDataAsMap();
             int count = Util.getInt(data.get(countName));
@@ -552,79 +990,192 @@ class CometClient extends BaseClient {
                     record.remove("base");
                 }
             }
+            mPageSizer.update(request.getRequest(), SystemClock.elapsedRealtime() - request.publishedAt,
+                    BayeuxMessageDecoder.getEncodedLength(message), getItems().size());
 
-            // Process the lists for all the registered handlers
-            final boolean fullList = browseRequest.isFullList();
-            final int start = browseRequest.getStart();
-            final int end = start + getItems().size();
-            int max = 0;
             patchUrlPrefix(data);
-            browseRequest.getCallback().onItemsReceived(count, start, data, getItems(), getDataType());
-            if (count > max) {
-                max = count;
+            if (browseRequest.isFullList()) {
+                receiveListPage(request, browseRequest, count, data);
+                return;
+            }
+
+            BrowseCache.Scope scope = BrowseCache.getScope(browseRequest.cmd, browseRequest.params);
+            if (scope != BrowseCache.Scope.NONE) {
+                // The items are kept separately, so don't keep the records
+                Map<String, Object> parameters = new HashMap<>(data);
+                parameters.remove(itemLoopName);
+                Player player = browseRequest.getPlayer();
+                mBrowseCache.put(cacheKey(browseRequest, this), scope, (player != null ? player.getId() : null),
+                        new Page<>(browseRequest.getStart(), getItems().size(), count, parameters, new ArrayList<>(getItems())));
+            }
+
+            receivePage(request.getRequest(), browseRequest, count, data, getItems());
+        }
+
+        /** Deliver a page from the browse response cache, as if it was received from the server. */
+        void receiveCachedPage(BrowseRequest<T> browseRequest, Page<?> page) {
+            removeInFlight(browseRequest);
+            if (browseRequest.isCancelled()) {
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            List<T> items = new ArrayList<>((List<T>) page.items);
+            receivePage(Request.joiner.join(browseRequest.cmd), browseRequest, page.count, page.data, items);
+        }
+
+        /** Deliver items of a library view from the mirror, as if they were received from the server. */
+        void receiveMirroredPage(String readKey, BrowseRequest<T> browseRequest, LibraryMirror.Page page) {
+            if (mPendingBrowseRequests.remove(readKey) == null) {
+                return;
+            }
+            removeInFlight(browseRequest);
+            if (browseRequest.isCancelled()) {
+                return;
+            }
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("count", page.count);
+            if (page.base != null) {
+                Map<String, Object> baseRecord = new HashMap<>(page.base);
+                patchUrlPrefix(baseRecord);
+                data.put("base", baseRecord);
+            }
+            List<T> items = new ArrayList<>(page.records.size());
+            for (Map<String, Object> record : page.records) {
+                patchUrlPrefix(record);
+                if (page.base != null) record.put("base", data.get("base"));
+                items.add(newItem(record));
+                record.remove("base");
             }
+            patchUrlPrefix(data);
+            receivePage(Request.joiner.join(browseRequest.cmd), browseRequest, page.count, data, items);
+        }
+
+        private void receivePage(String command, BrowseRequest<T> browseRequest, int count, Map<String, Object> data, List<T> items) {
+            // Process the lists for all the registered handlers
+            final int start = browseRequest.getStart();
+            final int size = items.size();
+            final int end = start + size;
+            deliver(browseRequest, count, start, data, items);
 
             // Check if we need to order more items
-            if ((fullList || end % mPageSize != 0) && end < max) {
-                int itemsPerResponse = (end + mPageSize > max ? max - end : fullList ? mPageSize : mPageSize - browseRequest.getItemsPerResponse());
+            if (!browseRequest.isCancelled() && size > 0 && end < browseRequest.getRequestedEnd() && end < count) {
+                int itemsPerResponse = (browseRequest.isAdaptive() ? mPageSizer.getPageSize(command) : browseRequest.getRequestedEnd() - end);
                 //XXX support prefix
-                internalRequestItems(browseRequest.update(end, itemsPerResponse));
+                internalRequestItems(browseRequest.update(end, Math.min(itemsPerResponse, count - end)), Priority.PREFETCH);
+            }
+        }
+
+        /**
+         * Pass the pages of a full list to the callbacks in order, and order the following pages
+         * when there is room for them. Pages may be received in any order, as up to
+         * {@link #mFullListConcurrency} pages are requested at the same time.
+         */
+        private void receiveListPage(Request request, BrowseRequest<T> page, int count, Map<String, Object> data) {
+            BrowseRequest<T> list = page.getList();
+            List<BrowseRequest<T>> nextPages;
+            synchronized (list) {
+                for (Page<T> received : list.receivePage(page, count, data, getItems())) {
+                    deliver(list, received.count, received.start, received.data, received.items);
+                }
+                int pageSize = (list.isAdaptive() ? mPageSizer.getPageSize(request.getRequest()) : list.getItemsPerResponse());
+                nextPages = (list.isCancelled() ? Collections.emptyList() : list.nextPages(pageSize, mFullListConcurrency));
+            }
+            for (BrowseRequest<T> nextPage : nextPages) {
+                internalRequestItems(nextPage, this, Priority.BACKGROUND);
+            }
+        }
+
+        private void deliver(BrowseRequest<T> browseRequest, int count, int start, Map<String, Object> data, List<T> items) {
+            List<IServiceItemListCallback<T>> callbacks = browseRequest.getCallbacks();
+            for (IServiceItemListCallback<T> callback : callbacks) {
+                // Give each caller its own list, if the response is shared
+                callback.onItemsReceived(count, start, data, (callbacks.size() > 1 ? new ArrayList<>(items) : items), getDataType());
             }
         }
 
-        void parseMessage(String itemLoopName, Message message) {
-            parseMessage("count", itemLoopName, message);
+        void parseMessage(Request request, String itemLoopName, Message message) {
+            parseMessage(request, "count", itemLoopName, message);
         }
     }
 
     private class AlarmsListener extends ItemListener<Alarm> {
+        AlarmsListener() {
+            super(Alarm.class, Alarm::new);
+        }
+
         @Override
         public void onResponse(Player player, Request request, Message message) {
-            parseMessage("alarms_loop", message);
+            parseMessage(request, "alarms_loop", message);
         }
     }
 
     private class AlarmPlaylistsListener extends ItemListener<AlarmPlaylist> {
+        AlarmPlaylistsListener() {
+            super(AlarmPlaylist.class, AlarmPlaylist::new);
+        }
+
         @Override
         public void onResponse(Player player, Request request, Message message) {
-            parseMessage("item_loop", message);
+            parseMessage(request, "item_loop", message);
         }
     }
 
     private class SongListener extends ItemListener<Song> {
+        SongListener() {
+            super(Song.class, Song::new);
+        }
+
         @Override
         public void onResponse(Player player, Request request, Message message) {
             switch (request.getRequest()) {
                 default:
-                    parseMessage("titles_loop", message);
+                    parseMessage(request, "titles_loop", message);
                     break;
                 case "playlists tracks":
-                    parseMessage("playlisttracks_loop", message);
+                    parseMessage(request, "playlisttracks_loop", message);
                     break;
                 case "status":
-                    parseMessage("playlist_tracks", "playlist_loop", message);
+                    parseMessage(request, "playlist_tracks", "playlist_loop", message);
                     break;
             }
-            parseMessage("titles_loop", message);
+            parseMessage(request, "titles_loop", message);
         }
     }
 
     private class MusicFolderListener extends ItemListener<MusicFolderItem> {
+        MusicFolderListener() {
+            super(MusicFolderItem.class, MusicFolderItem::new);
+        }
+
         @Override
         public void onResponse(Player player, Request request, Message message) {
-            parseMessage("folder_loop", message);
+            parseMessage(request, "folder_loop", message);
         }
     }
 
     private class JiveItemListener extends ItemListener<JiveItem> {
+        JiveItemListener() {
+            super(JiveItem.class, JiveItem::new);
+        }
+
         @Override
         public void onResponse(Player player, Request request, Message message) {
-            parseMessage("item_loop", message);
+            parseMessage(request, "item_loop", message);
         }
     }
 
-    public void onEvent(@SuppressWarnings("unused") HandshakeComplete event) {
-        mBackgroundHandler.removeMessages(MSG_HANDSHAKE_TIMEOUT);
+    /** Records of library views for {@link LibraryMirror} */
+    private class LibraryRecordListener extends ItemListener<LibraryMirror.Record> {
+        LibraryRecordListener() {
+            super(LibraryMirror.Record.class, LibraryMirror.Record::new);
+        }
+
+        @Override
+        public void onResponse(Player player, Request request, Message message) {
+            parseMessage(request, "item_loop", message);
+        }
     }
 
     @Override
@@ -644,31 +1195,69 @@ class CometClient extends BaseClient {
 
     @Override
     public void cancelClientRequests(Object client) {
-        for (Map.Entry<String, BrowseRequest<?>> entry : mPendingBrowseRequests.entrySet()) {
-            if (entry.getValue().getCallback().getClient() == client) {
-                mPendingBrowseRequests.remove(entry.getKey());
+        Set<String> cancelled = new HashSet<>();
+        synchronized (mInFlightBrowseRequests) {
+            for (Map.Entry<String, BrowseRequest<?>> entry : mPendingBrowseRequests.entrySet()) {
+                BrowseRequest<?> browseRequest = entry.getValue();
+                if (browseRequest.removeCallbacks(client)) {
+                    browseRequest.cancel();
+                    mPendingBrowseRequests.remove(entry.getKey());
+                    mPendingRequests.remove(entry.getKey());
+                    mInFlightBrowseRequests.values().remove(browseRequest);
+                    cancelled.add(entry.getKey());
+                }
             }
         }
+
+        // Drop the requests which are still waiting to be published
+        if (!cancelled.isEmpty()) {
+            mBackgroundHandler.obtainMessage(MSG_CANCEL, cancelled).sendToTarget();
+        }
     }
 
     private void exec(ResponseHandler callback, String... cmd) {
         exec(request(callback, cmd));
     }
 
+    /**
+     * Execute a request which must not overtake, or be overtaken by, other requests for the same
+     * player, such as a command.
+     */
     private String exec(Request request) {
+        return exec(request, request.player != null ? request.player.getId() : "", Priority.INTERACTIVE);
+    }
+
+    private String exec(Request request, String orderingKey, Priority priority) {
         String responseChannel = String.format(CHANNEL_SLIM_REQUEST_RESPONSE_FORMAT, mBayeuxClient.getId(), mCorrelationId++);
-        if (request.callback != null) mPendingRequests.put(responseChannel, request);
-        publishMessage(request, CHANNEL_SLIM_REQUEST, responseChannel, null);
+        // Wait for the response to a command which made a local change, to settle the change
+        if (request.callback != null || request.localChange != 0) {
+            if (mPendingRequests.size() < MAX_PENDING_REQUESTS) {
+                // The deadline includes the time the request waits in the queue
+                request.deadline = SystemClock.elapsedRealtime() + REQUEST_TIMEOUT;
+                mPendingRequests.put(responseChannel, request);
+                updateMax(mMaxPendingRequests, mPendingRequests.size());
+            } else {
+                // Still send it, but don't wait for the response
+                mRejectedRequests.incrementAndGet();
+                Log.w(TAG, "Too many pending requests, ignoring the response to " + request.getRequest());
+            }
+        }
+        publishMessage(request, CHANNEL_SLIM_REQUEST, responseChannel, orderingKey, priority, null);
         return responseChannel;
     }
 
-    /** If request is null, this is an unsubscribe to the suplied response channel */
-    private void publishMessage(final Request request, final String channel, final String responseChannel, final PublishListener publishListener) {
+    /**
+     * If request is null, this is an unsubscribe to the suplied response channel
+     * <p>
+     * Messages with the same (non null) ordering key are published in order, one at a time, and
+     * higher priorities are published first. See {@link PublishQueue}.
+     */
+    private void publishMessage(final Request request, final String channel, final String responseChannel, final String orderingKey, final Priority priority, final PublishListener publishListener) {
+        PublishMessage publishMessage = new PublishMessage(request, channel, responseChannel, orderingKey, priority, publishListener);
         // Make sure all requests are done in the handler thread
         if (mBackgroundHandler.getLooper() == Looper.myLooper()) {
-            _publishMessage(request, channel, responseChannel, publishListener);
+            _publishMessage(publishMessage);
         } else {
-            PublishMessage publishMessage = new PublishMessage(request, channel, responseChannel, publishListener);
             android.os.Message message = mBackgroundHandler.obtainMessage(MSG_PUBLISH, publishMessage);
             mBackgroundHandler.sendMessage(message);
         }
@@ -676,51 +1265,396 @@ class CometClient extends BaseClient {
     }
 
     /** This may only be called from the handler thread */
-    private void _publishMessage(Request request, String channel, String responseChannel, PublishListener publishListener) {
-        if (!mCurrentCommand) {
-            mCurrentCommand = true;
+    private void _publishMessage(PublishMessage publishMessage) {
+        PublishMessage replaced = mPublishQueue.add(publishMessage);
+        if (replaced != null) {
+            // It will never be sent, so don't wait for a response
+            mPendingRequests.remove(replaced.responseChannel);
+        }
+        Request request = mPendingRequests.get(publishMessage.responseChannel);
+        if (request != null) {
+            mRequestDeadlines.schedule(publishMessage.responseChannel, request.deadline);
+            if (!mBackgroundHandler.hasMessages(MSG_REQUEST_TIMER)) {
+                mBackgroundHandler.sendEmptyMessageDelayed(MSG_REQUEST_TIMER, REQUEST_TIMER_TICK);
+            }
+        }
+        sendPublishMessages();
+    }
+
+    /** Publish queued messages while there is room in the window. Call from the handler thread. */
+    private void sendPublishMessages() {
+        PublishMessage message;
+        while ((message = mPublishQueue.poll()) != null) {
             Map<String, Object> data = new HashMap<>();
-            if (request != null) {
-                data.put("request", request.slimRequest());
-                data.put("response", responseChannel);
+            if (message.request != null) {
+                message.request.publishedAt = SystemClock.elapsedRealtime();
+                data.put("request", message.request.slimRequest());
+                data.put("response", message.responseChannel);
             } else {
-                data.put("unsubscribe", responseChannel);
+                data.put("unsubscribe", message.responseChannel);
+            }
+            final PublishMessage publishMessage = message;
+            final PublishListener publishListener = (message.publishListener != null ? message.publishListener : mPublishListener);
+            mBayeuxClient.getChannel(message.channel).publish(data, (channel, reply) -> {
+                publishListener.onMessage(channel, reply);
+                mBackgroundHandler.obtainMessage(MSG_PUBLISH_RESPONSE_RECIEVED, publishMessage).sendToTarget();
+                if (!reply.isSuccessful()) {
+                    // The server will not respond to the request
+                    mBackgroundHandler.post(() -> failRequest(publishMessage.responseChannel, new IOException("Publish failed")));
+                }
+            });
+        }
+    }
+
+    /**
+     * Fail requests which have passed their deadline. Call from the handler thread.
+     * <p>
+     * An expired request which is still waiting is removed from the publish queue, and one which
+     * is in flight gives up its slot in the window, as its acknowledgement may be lost.
+     */
+    private void expireRequests() {
+        Set<String> expired = new HashSet<>();
+        for (String responseChannel : mRequestDeadlines.advance(SystemClock.elapsedRealtime())) {
+            if (failRequest(responseChannel, new TimeoutException("No response from server"))) {
+                mTimedOutRequests.incrementAndGet();
+                expired.add(responseChannel);
             }
-            mBayeuxClient.getChannel(channel).publish(data, publishListener != null ? publishListener : this.mPublishListener);
-        } else
-            mCommandQueue.add(new PublishMessage(request, channel, responseChannel, publishListener));
+        }
+        if (!expired.isEmpty()) {
+            mPublishQueue.removeIf(message -> expired.contains(message.responseChannel));
+            if (mPublishQueue.acknowledgeIf(message -> expired.contains(message.responseChannel)) > 0) {
+                sendPublishMessages();
+            }
+        }
+        if (!mRequestDeadlines.isEmpty()) {
+            mBackgroundHandler.sendEmptyMessageDelayed(MSG_REQUEST_TIMER, REQUEST_TIMER_TICK);
+        }
+    }
+
+    /**
+     * Drop the queued messages for another client id, and fail the requests waiting for a
+     * response to it. Call from the handler thread.
+     * <p>
+     * Subscriptions are made again by {@link #resubscribe()}, so the queued ones are dropped.
+     * Commands which don't wait for a response are published again with the new client id.
+     */
+    private void failStaleRequests(String clientId) {
+        String prefix = '/' + clientId + '/';
+        List<PublishMessage> stale = new ArrayList<>();
+        mPublishQueue.removeIf(message -> {
+            if (message.responseChannel.startsWith(prefix)) {
+                return false;
+            }
+            stale.add(message);
+            return true;
+        });
+
+        for (String responseChannel : new ArrayList<>(mPendingRequests.keySet())) {
+            if (!responseChannel.startsWith(prefix) && failRequest(responseChannel, new IOException("Session lost"))) {
+                mDisconnectedRequests.incrementAndGet();
+            }
+        }
+
+        for (PublishMessage message : stale) {
+            if (CHANNEL_SLIM_REQUEST.equals(message.channel) && message.request != null
+                    && message.request.callback == null && message.responseChannel.contains("/slim/request/")) {
+                exec(message.request, message.orderingKey, message.priority);
+            }
+        }
+        if (!stale.isEmpty()) {
+            Log.i(TAG, "Dropped " + stale.size() + " messages for the old client id");
+        }
+    }
+
+    /** Fail all requests waiting for a response, because the connection is lost. */
+    private void failPendingRequests() {
+        for (String responseChannel : new ArrayList<>(mPendingRequests.keySet())) {
+            if (failRequest(responseChannel, new IOException("Disconnected from server"))) {
+                mDisconnectedRequests.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stop waiting for the response to a request, and notify the caller of a browse request.
+     *
+     * @return True if the request was still waiting for a response.
+     */
+    private boolean failRequest(String responseChannel, Exception cause) {
+        Request request = mPendingRequests.remove(responseChannel);
+        if (request == null) {
+            return false;
+        }
+        Log.w(TAG, "Request failed: " + request.getRequest() + ": " + cause.getMessage());
+        if (request.localChange != 0) {
+            dropLocalState(request.player, request.localChange);
+        }
+        BrowseRequest<?> browseRequest = mPendingBrowseRequests.remove(responseChannel);
+        if (browseRequest != null) {
+            failBrowseRequest(browseRequest, cause);
+        }
+        return true;
+    }
+
+    private void failBrowseRequest(BrowseRequest<?> browseRequest, Exception cause) {
+        synchronized (mInFlightBrowseRequests) {
+            mInFlightBrowseRequests.values().remove(browseRequest);
+        }
+        if (browseRequest.isFullList()) {
+            // The later pages of the list can't be delivered in order, so don't process them
+            browseRequest.cancel();
+        }
+        for (IServiceItemListCallback<?> callback : browseRequest.getCallbacks()) {
+            callback.onItemsFailed(browseRequest.getStart(), cause);
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
     }
 
     @Override
     protected  <T> void internalRequestItems(final BrowseRequest<T> browseRequest) {
-        Class<?> callbackClass = Reflection.getGenericClass(browseRequest.getCallback().getClass(), IServiceItemListCallback.class, 0);
-        ItemListener listener = mItemRequestMap.get(callbackClass);
-        if (listener == null) {
-            throw new RuntimeException("No handler defined for '" + browseRequest.getCallback().getClass() + "'");
+        ItemListener listener = getItemListener(browseRequest);
+
+        // If an identical request is waiting for its response, share the response
+        String key = inFlightKey(browseRequest, listener);
+        LastPlayerMenu lastPlayerMenu = mLastPlayerMenu.get();
+        if (lastPlayerMenu != null && key.equals(lastPlayerMenu.key) && mLastPlayerMenu.compareAndSet(lastPlayerMenu, null)) {
+            @SuppressWarnings("unchecked")
+            IServiceItemListCallback<JiveItem> callback = (IServiceItemListCallback<JiveItem>) browseRequest.getCallback();
+            lastPlayerMenu.setCallback(callback);
+            return;
+        }
+        synchronized (mInFlightBrowseRequests) {
+            @SuppressWarnings("unchecked")
+            BrowseRequest<T> inFlight = (BrowseRequest<T>) mInFlightBrowseRequests.get(key);
+            if (inFlight != null) {
+                IServiceItemListCallback<T> callback = browseRequest.getCallback();
+                if (!inFlight.getCallbacks().contains(callback)) {
+                    inFlight.addCallback(callback);
+                }
+                return;
+            }
+            mInFlightBrowseRequests.put(key, browseRequest);
+        }
+
+        if (!browseRequest.isFullList()) {
+            maybeSyncLibraryView(browseRequest);
+        }
+
+        if (browseRequest.isAdaptive()) {
+            // A small first page shows something quickly, and tells the size of the list
+            String command = Request.joiner.join(browseRequest.cmd);
+            int start = browseRequest.getStart();
+            browseRequest.update(start, start == 0 ? mPageSizer.getFirstPageSize(command) : mPageSizer.getPageSize(command));
+        }
+
+        // Full lists are only requested for downloads
+        internalRequestItems(browseRequest, listener, browseRequest.isFullList() ? Priority.BACKGROUND : Priority.VISIBLE);
+    }
+
+    private <T> void internalRequestItems(final BrowseRequest<T> browseRequest, Priority priority) {
+        internalRequestItems(browseRequest, getItemListener(browseRequest), priority);
+    }
+
+    private <T> void internalRequestItems(final BrowseRequest<T> browseRequest, ItemListener listener, Priority priority) {
+        if (!browseRequest.isFullList()) {
+            LibraryMirror libraryMirror = mLibraryMirror;
+            String viewKey = (libraryMirror != null ? libraryViewKey(browseRequest) : null);
+            if (viewKey != null && libraryMirror.isReadable(viewKey)) {
+                // Register the read like a request, so the client can cancel it
+                String readKey = "/mirror/" + mMirrorReadId.incrementAndGet();
+                mPendingBrowseRequests.put(readKey, browseRequest);
+                String search = LibraryMirror.getSearch(browseRequest.params);
+                libraryMirror.read(viewKey, search, browseRequest.getStart(), browseRequest.getItemsPerResponse(), page -> {
+                    if (page != null) {
+                        listener.receiveMirroredPage(readKey, browseRequest, page);
+                    } else if (mPendingBrowseRequests.remove(readKey) != null) {
+                        publishBrowseRequest(browseRequest, listener, priority);
+                    }
+                });
+                return;
+            }
+
+            Page<?> cached = mBrowseCache.get(cacheKey(browseRequest, listener));
+            if (cached != null) {
+                listener.receiveCachedPage(browseRequest, cached);
+                return;
+            }
+        }
+
+        publishBrowseRequest(browseRequest, listener, priority);
+    }
+
+    private <T> void publishBrowseRequest(final BrowseRequest<T> browseRequest, ItemListener listener, Priority priority) {
+        if (mPendingRequests.size() >= MAX_PENDING_REQUESTS) {
+            mRejectedRequests.incrementAndGet();
+            failBrowseRequest(browseRequest, new RejectedExecutionException("Too many pending requests"));
+            return;
         }
 
         Request request = request(browseRequest.getPlayer(), listener, browseRequest.cmd())
                 .page(browseRequest.getStart(), browseRequest.getItemsPerResponse())
                 .params(browseRequest.params);
-        mPendingBrowseRequests.put(exec(request), browseRequest);
+        // Browsing doesn't change anything, so it needn't wait for other requests
+        mPendingBrowseRequests.put(exec(request, null, priority), browseRequest);
+    }
+
+    private void removeInFlight(BrowseRequest<?> browseRequest) {
+        synchronized (mInFlightBrowseRequests) {
+            mInFlightBrowseRequests.values().remove(browseRequest);
+        }
+    }
+
+    @Override
+    public void setLibraryMirror(boolean enabled) {
+        if (enabled && mLibraryMirror == null) {
+            mLibraryMirror = new LibraryMirror(Squeezer.getContext());
+        } else if (!enabled && mLibraryMirror != null) {
+            // Don't keep a copy of the library which is not used
+            mLibraryMirror.clear();
+            mLibraryMirror.close();
+            mLibraryMirror = null;
+        }
+    }
+
+    @Override
+    public boolean isMirrored(Player player, List<String> cmd, Map<String, Object> params) {
+        LibraryMirror libraryMirror = mLibraryMirror;
+        String viewKey = (libraryMirror != null ? LibraryMirror.getViewKey(mUrlPrefix, (player != null ? player.getId() : null), cmd, LibraryMirror.getViewParams(params)) : null);
+        return viewKey != null && libraryMirror.isReadable(viewKey);
+    }
+
+    /**
+     * @return Key of the library view for the request, or null if it is not mirrored. If the
+     * request is a search, this is the key of the view which is searched.
+     */
+    @Nullable
+    private String libraryViewKey(BrowseRequest<?> browseRequest) {
+        // Mirrored records are read as JiveItems
+        if (browseRequest.getCallback().getDataType() != JiveItem.class) {
+            return null;
+        }
+        Player player = browseRequest.getPlayer();
+        return LibraryMirror.getViewKey(mUrlPrefix, (player != null ? player.getId() : null), browseRequest.cmd, LibraryMirror.getViewParams(browseRequest.params));
+    }
+
+    /** Add the library view of the request to the mirror, if it is mirrored and not synced yet. */
+    private void maybeSyncLibraryView(BrowseRequest<?> browseRequest) {
+        LibraryMirror libraryMirror = mLibraryMirror;
+        String viewKey = (libraryMirror != null ? libraryViewKey(browseRequest) : null);
+        Player player = browseRequest.getPlayer();
+        if (viewKey != null) {
+            // A search starts the sync of the view it searches
+            Map<String, Object> viewParams = LibraryMirror.getViewParams(browseRequest.params);
+            if (libraryMirror.startSync(viewKey, (player != null ? player.getId() : null), browseRequest.cmd, viewParams)) {
+                syncLibraryView(libraryMirror, viewKey, player, browseRequest.cmd, viewParams);
+            }
+        }
+    }
+
+    /** Request all the items of a library view in the background, and store them in the mirror. */
+    private void syncLibraryView(LibraryMirror libraryMirror, String viewKey, @Nullable Player player, List<String> cmd, Map<String, Object> params) {
+        IServiceItemListCallback<LibraryMirror.Record> callback = new IServiceItemListCallback<LibraryMirror.Record>() {
+            @Override
+            public Class<LibraryMirror.Record> getDataType() {
+                return LibraryMirror.Record.class;
+            }
+
+            @Override
+            public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<LibraryMirror.Record> items, Class<LibraryMirror.Record> dataType) {
+                List<Map<String, Object>> records = new ArrayList<>(items.size());
+                for (LibraryMirror.Record item : items) {
+                    records.add(item.record);
+                }
+                libraryMirror.putItems(viewKey, start, records);
+                if (start + items.size() >= count) {
+                    libraryMirror.finishSync(viewKey, count, Util.getRecord(parameters, "base"));
+                }
+            }
+
+            @Override
+            public void onItemsFailed(int start, Exception cause) {
+                libraryMirror.abortSync(viewKey);
+            }
+
+            @Override
+            public Object getClient() {
+                return libraryMirror;
+            }
+        };
+        internalRequestItems(new BrowseRequest<>(player, cmd.toArray(new String[0]), params, -1, ADAPTIVE_PAGE_SIZE, callback));
+    }
+
+    private <T> ItemListener getItemListener(BrowseRequest<T> browseRequest) {
+        Class<T> dataType = browseRequest.getCallback().getDataType();
+        ItemListener listener = mItemRequestMap.get(dataType);
+        if (listener == null) {
+            throw new RuntimeException("No handler defined for '" + dataType + "'");
+        }
+        return listener;
+    }
+
+    /** @return Key which is equal for requests which will get identical responses. */
+    private static String inFlightKey(BrowseRequest<?> browseRequest, ItemListener listener) {
+        return commandKey(browseRequest, listener) +
+                '|' + (browseRequest.isFullList() ? -1 : browseRequest.getStart()) +
+                '|' + browseRequest.getItemsPerResponse();
+    }
+
+    /**
+     * @return Key of the cached response to a request. Any number of items from the start of the
+     * request is a valid response, so the number of items is not part of the key.
+     */
+    private static String cacheKey(BrowseRequest<?> browseRequest, ItemListener listener) {
+        return commandKey(browseRequest, listener) + '|' + browseRequest.getStart();
+    }
+
+    private static String commandKey(BrowseRequest<?> browseRequest, ItemListener listener) {
+        Player player = browseRequest.getPlayer();
+        return listener.getDataType().getName() + '|' + (player != null ? player.getId() : "") +
+                '|' + browseRequest.cmd + '|' + new TreeMap<>(browseRequest.params);
     }
 
     @Override
-    public void command(Player player, String[] cmd, Map<String, Object> params) {
+    public void command(Player player, String[] cmd, Map<String, Object> params, int localChange) {
         ResponseHandler callback = mRequestMap.get(cmd[0]);
-        exec(request(player, callback, cmd).params(params));
+        Request request = request(player, callback, cmd).params(params);
+        request.localChange = localChange;
+        exec(request);
+    }
+
+    @Override
+    public int setLocalState(Player player, PendingChanges.Field field, Object value) {
+        int change = super.setLocalState(player, field, value);
+        // If no status has settled the change by then, the server must tell the state
+        mBackgroundHandler.postDelayed(() -> dropLocalState(player, change), PendingChanges.TIMEOUT);
+        return change;
     }
 
     @Override
     public void requestPlayerStatus(Player player) {
         Request request = statusRequest(player);
-        publishMessage(request, CHANNEL_SLIM_REQUEST, subscribeResponseChannel(player, CHANNEL_PLAYER_STATUS_FORMAT), null);
+        String responseChannel = subscribeResponseChannel(player, CHANNEL_PLAYER_STATUS_FORMAT);
+        publishMessage(request, CHANNEL_SLIM_REQUEST, responseChannel, responseChannel, Priority.INTERACTIVE, null);
     }
 
     @Override
     public void subscribePlayerStatus(final Player player, final PlayerState.PlayerSubscriptionType subscriptionType) {
+        if (subscriptionType == PlayerState.PlayerSubscriptionType.NOTIFY_INTERVAL) {
+            if (mPolledPlayers.add(player.getId())) {
+                mBackgroundHandler.removeMessages(MSG_POLL_STATUS);
+                mBackgroundHandler.sendEmptyMessageDelayed(MSG_POLL_STATUS, POLL_INTERVAL);
+            }
+        } else {
+            mPolledPlayers.remove(player.getId());
+        }
         Request request = statusRequest(player).param("subscribe", subscriptionType.getStatus());
-        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, subscribeResponseChannel(player, CHANNEL_PLAYER_STATUS_FORMAT), new PublishListener() {
+        String responseChannel = subscribeResponseChannel(player, CHANNEL_PLAYER_STATUS_FORMAT);
+        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, responseChannel, responseChannel, Priority.INTERACTIVE, new PublishListener() {
             @Override
             public void onMessage(ClientSessionChannel channel, Message message) {
                 super.onMessage(channel, message);
@@ -731,10 +1665,25 @@ class CometClient extends BaseClient {
         });
     }
 
+    @Override
+    public void setLowPower(boolean lowPower) {
+        mLowPower = lowPower;
+        HttpStreamingTransport transport = mTransport;
+        if (transport != null) {
+            transport.setMinConnectInterval(lowPower ? LOW_POWER_CONNECT_INTERVAL : 0);
+        }
+    }
+
     @Override
     public void subscribeDisplayStatus(Player player, boolean subscribe) {
+        if (subscribe) {
+            mDisplayStatusPlayers.add(player.getId());
+        } else {
+            mDisplayStatusPlayers.remove(player.getId());
+        }
         Request request = request(player, "displaystatus").param("subscribe", subscribe ? "showbriefly" : "");
-        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, subscribeResponseChannel(player, CHANNEL_DISPLAY_STATUS_FORMAT), mPublishListener);
+        String responseChannel = subscribeResponseChannel(player, CHANNEL_DISPLAY_STATUS_FORMAT);
+        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, responseChannel, responseChannel, Priority.INTERACTIVE, mPublishListener);
     }
 
     @Override
@@ -746,18 +1695,27 @@ class CometClient extends BaseClient {
     }
 
     private void subscribeMenuStatus(Player player) {
+        mMenuStatusPlayers.add(player.getId());
         Request request = request(player, "menustatus");
-        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT), null);
+        String responseChannel = subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT);
+        publishMessage(request, CHANNEL_SLIM_SUBSCRIBE, responseChannel, responseChannel, Priority.INTERACTIVE, null);
     }
 
     private void unsubscribeMenuStatus(Player player) {
-        publishMessage(null, CHANNEL_SLIM_UNSUBSCRIBE, subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT), null);
+        mMenuStatusPlayers.remove(player.getId());
+        String responseChannel = subscribeResponseChannel(player, CHANNEL_MENU_STATUS_FORMAT);
+        publishMessage(null, CHANNEL_SLIM_UNSUBSCRIBE, responseChannel, responseChannel, Priority.INTERACTIVE, null);
     }
 
     private String subscribeResponseChannel(Player player, String format) {
         return String.format(format, mBayeuxClient.getId(), player.getId());
     }
 
+    /** @return Statistics of the time requests of the given priority waited to be published. */
+    PublishQueue.WaitStatistics getWaitStatistics(Priority priority) {
+        return mPublishQueue.getWaitStatistics(priority);
+    }
+
     private static String getAdviceAction(Map<String, Object> advice) {
         String action = null;
         if (advice != null && advice.containsKey(Message.RECONNECT_FIELD))
@@ -771,6 +1729,11 @@ class CometClient extends BaseClient {
     private static final int MSG_PUBLISH_RESPONSE_RECIEVED = 4;
     private static final int MSG_TIME_UPDATE = 5;
     private static final int MSG_STATE_UPDATE = 6;
+    private static final int MSG_PUBLISH_RESET = 7;
+    private static final int MSG_REQUEST_TIMER = 8;
+    private static final int MSG_CANCEL = 9;
+    private static final int MSG_RESUME_TIMEOUT = 10;
+    private static final int MSG_POLL_STATUS = 11;
     private class CliHandler extends Handler {
         CliHandler(Looper looper) {
             super(looper);
@@ -780,24 +1743,72 @@ class CometClient extends BaseClient {
         public void handleMessage(android.os.Message msg) {
             switch (msg.what) {
                 case MSG_PUBLISH: {
-                    PublishMessage message = (PublishMessage) msg.obj;
-                    _publishMessage(message.request, message.channel, message.responseChannel, message.publishListener);
+                    _publishMessage((PublishMessage) msg.obj);
                     break;
                 }
                 case MSG_DISCONNECT:
+                    mResumeStartedAt.set(0);
+                    removeMessages(MSG_RESUME_TIMEOUT);
+                    mPolledPlayers.clear();
+                    removeMessages(MSG_POLL_STATUS);
+                    failPendingRequests();
+                    for (Priority priority : Priority.values()) {
+                        Log.i(TAG, "Queue wait " + priority + ": " + getWaitStatistics(priority));
+                    }
+                    Log.i(TAG, "Requests timed out: " + mTimedOutRequests + ", rejected: " + mRejectedRequests
+                            + ", disconnected: " + mDisconnectedRequests + ", cancelled: " + mCancelledRequests
+                            + ", max pending: " + mMaxPendingRequests);
+                    Log.i(TAG, "Time to home screen: " + mTimeToInteractive + ", last " + mBootstrap);
+                    Log.i(TAG, "Resumed sessions: " + mResumeTimes + ", with new handshake: " + mRehandshakeTimes
+                            + ", failed: " + mFailedResumes);
+                    Log.i(TAG, mPageSizer.toString());
+                    Log.i(TAG, mBrowseCache.toString());
+                    if (mLibraryMirror != null) Log.i(TAG, mLibraryMirror.toString());
                     mBayeuxClient.disconnect();
                     break;
+                case MSG_POLL_STATUS:
+                    for (String playerId : mPolledPlayers) {
+                        Player player = mConnectionState.getPlayers().get(playerId);
+                        if (player != null) {
+                            Request request = statusRequest(player);
+                            String responseChannel = subscribeResponseChannel(player, CHANNEL_PLAYER_STATUS_FORMAT);
+                            publishMessage(request, CHANNEL_SLIM_REQUEST, responseChannel, responseChannel, Priority.VISIBLE, null);
+                        }
+                    }
+                    if (!mPolledPlayers.isEmpty()) {
+                        removeMessages(MSG_POLL_STATUS);
+                        sendEmptyMessageDelayed(MSG_POLL_STATUS, POLL_INTERVAL);
+                    }
+                    break;
+                case MSG_RESUME_TIMEOUT:
+                    if (mResumeStartedAt.getAndSet(0) != 0) {
+                        Log.w(TAG, "Could not resume session");
+                        mFailedResumes.incrementAndGet();
+                        disconnect();
+                    }
+                    break;
                 case MSG_HANDSHAKE_TIMEOUT:
                     Log.w(TAG, "LMS handshake timeout: " + mConnectionState);
                     disconnect();
                     break;
-                case MSG_PUBLISH_RESPONSE_RECIEVED: {
-                    mCurrentCommand = false;
-                    PublishMessage message = mCommandQueue.poll();
-                    if (message != null)
-                        _publishMessage(message.request, message.channel, message.responseChannel, message.publishListener);
+                case MSG_PUBLISH_RESPONSE_RECIEVED:
+                    if (mPublishQueue.acknowledge((PublishMessage) msg.obj)) {
+                        sendPublishMessages();
+                    }
+                    break;
+                case MSG_CANCEL: {
+                    @SuppressWarnings("unchecked")
+                    Set<String> cancelled = (Set<String>) msg.obj;
+                    mCancelledRequests.addAndGet(mPublishQueue.removeIf(message -> cancelled.contains(message.responseChannel)));
                     break;
                 }
+                case MSG_REQUEST_TIMER:
+                    expireRequests();
+                    break;
+                case MSG_PUBLISH_RESET:
+                    mPublishQueue.reset();
+                    sendPublishMessages();
+                    break;
                 case MSG_TIME_UPDATE: {
                     Player activePlayer = mConnectionState.getActivePlayer();
                     if (activePlayer != null) {
@@ -853,6 +1864,15 @@ class CometClient extends BaseClient {
         private final Player player;
         private PagingParams page;
 
+        /** Time the request was published, see {@link SystemClock#elapsedRealtime()} */
+        private long publishedAt;
+
+        /** Time to give up waiting for the response, see {@link SystemClock#elapsedRealtime()} */
+        private long deadline;
+
+        /** Id of the local change made by this command, or 0, see {@link PendingChanges}. */
+        private int localChange;
+
         private Request(Player player, ResponseHandler callback, String... cmd) {
             this.player = player;
             this.callback = callback;
@@ -893,6 +1913,33 @@ class CometClient extends BaseClient {
             return joiner.join(cmd);
         }
 
+        /**
+         * Commands which set an absolute value (volume and position in the current song), and
+         * volume queries, are coalesced per player, so only the latest one is sent. Relative
+         * changes are never coalesced.
+         *
+         * @return Key to coalesce this request, or null if it can't be coalesced.
+         */
+        @Nullable
+        String getCoalescingKey() {
+            if (player == null || !params.isEmpty() || page != null) {
+                return null;
+            }
+            if (cmd.size() == 3 && "mixer".equals(cmd.get(0)) && "volume".equals(cmd.get(1))) {
+                String value = cmd.get(2);
+                if ("?".equals(value)) return player.getId() + " mixer volume ?";
+                if (isAbsolute(value)) return player.getId() + " mixer volume";
+            }
+            if (cmd.size() == 2 && "time".equals(cmd.get(0)) && isAbsolute(cmd.get(1))) {
+                return player.getId() + " time";
+            }
+            return null;
+        }
+
+        private static boolean isAbsolute(String value) {
+            return !(value.isEmpty() || value.startsWith("+") || value.startsWith("-") || "?".equals(value));
+        }
+
         List<Object> slimRequest() {
             List<Object> slimRequest = new ArrayList<>();
 
@@ -928,17 +1975,37 @@ class CometClient extends BaseClient {
         }
     }
 
-    private static class PublishMessage {
+    private static class PublishMessage implements PublishQueue.Item {
         final Request request;
         final String channel;
         final String responseChannel;
+        final String orderingKey;
+        final Priority priority;
         final PublishListener publishListener;
 
-        private PublishMessage(Request request, String channel, String responseChannel, PublishListener publishListener) {
+        private PublishMessage(Request request, String channel, String responseChannel, String orderingKey, Priority priority, PublishListener publishListener) {
             this.request = request;
             this.channel = channel;
             this.responseChannel = responseChannel;
+            this.orderingKey = orderingKey;
+            this.priority = priority;
             this.publishListener = publishListener;
         }
+
+        @Override
+        public String getOrderingKey() {
+            return orderingKey;
+        }
+
+        @NonNull
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String getCoalescingKey() {
+            return (request != null && CHANNEL_SLIM_REQUEST.equals(channel) ? request.getCoalescingKey() : null);
+        }
     }
 }
@@ -0,0 +1,198 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Array backed map for the records decoded by {@link BayeuxMessageDecoder}.
+ * <p>
+ * LMS records are small, and are mostly read a few times by the model constructors, so a
+ * linear scan over two arrays beats hashing, and avoids allocating an entry object per field.
+ * Keys from the decoder are interned, so lookups with string literals usually succeed on the
+ * identity check.
+ * <p>
+ * Unlike {@link java.util.HashMap} the map keeps the order in which fields were received.
+ */
+class CompactMap extends AbstractMap<String, Object> {
+    private String[] keys;
+    private Object[] values;
+    private int size;
+
+    CompactMap() {
+        this(8);
+    }
+
+    CompactMap(int capacity) {
+        keys = new String[capacity];
+        values = new Object[capacity];
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) return i;
+        }
+        if (key != null) {
+            for (int i = 0; i < size; i++) {
+                if (key.equals(keys[i])) return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        if (size == keys.length) {
+            int capacity = size < 4 ? 4 : size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[size] = key;
+        values[size++] = value;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    private void removeAt(int index) {
+        int move = size - index - 1;
+        if (move > 0) {
+            System.arraycopy(keys, index + 1, keys, index, move);
+            System.arraycopy(values, index + 1, values, index, move);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @NonNull
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int next;
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            return new Entry<String, Object>() {
+                private final int index = current;
+
+                @Override
+                public String getKey() {
+                    return keys[index];
+                }
+
+                @Override
+                public Object getValue() {
+                    return values[index];
+                }
+
+                @Override
+                public Object setValue(Object value) {
+                    Object previous = values[index];
+                    values[index] = value;
+                    return previous;
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    if (!(o instanceof Map.Entry)) return false;
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+                }
+
+                @Override
+                public int hashCode() {
+                    return (getKey() == null ? 0 : getKey().hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+                }
+
+                @NonNull
+                @Override
+                public String toString() {
+                    return getKey() + "=" + getValue();
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(current);
+            next = current;
+            current = -1;
+        }
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -28,7 +28,6 @@ import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
-import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.Util;
 import uk.org.ngo.squeezer.model.Player;
 import uk.org.ngo.squeezer.model.JiveItem;
@@ -43,11 +42,11 @@ public class ConnectionState {
 
     private static final String TAG = "ConnectionState";
 
-    ConnectionState(@NonNull EventBus eventBus) {
+    ConnectionState(@NonNull SqueezeService.EventBus eventBus) {
         mEventBus = eventBus;
     }
 
-    private final EventBus mEventBus;
+    private final SqueezeService.EventBus mEventBus;
 
     public final static String MEDIA_DIRS = "mediadirs";
 
@@ -111,7 +110,7 @@ public class ConnectionState {
         mConnectionState = connectionState;
     }
 
-    public void setPlayers(Map<String, Player> players) {
+    public synchronized void setPlayers(Map<String, Player> players) {
         mPlayers.clear();
         mPlayers.putAll(players);
         mEventBus.postSticky(new PlayersChanged(players));
@@ -148,6 +147,28 @@ public class ConnectionState {
         this.mediaDirs.set(mediaDirs);
     }
 
+    /**
+     * Show the players and home menu of the last session, until the server tells the current
+     * ones. This is only done before the first players are received from the server.
+     * <p>
+     * The server version is not restored, because it means that the handshake is complete.
+     *
+     * @return True if the snapshot was applied.
+     */
+    synchronized boolean restoreSnapshot(SessionSnapshot snapshot) {
+        if (isConnected() || !mPlayers.isEmpty() || !homeMenu.isEmpty()) {
+            return false;
+        }
+        for (Player player : snapshot.players) {
+            mPlayers.put(player.getId(), player);
+        }
+        mActivePlayer.set(snapshot.getPlayer(snapshot.activePlayerId));
+        mediaDirs.set(snapshot.mediaDirs);
+        homeMenu.addAll(snapshot.homeMenu);
+        mEventBus.postSticky(new HomeMenuEvent(homeMenu));
+        return true;
+    }
+
     void clearHomeMenu() {
         homeMenu.clear();
     }
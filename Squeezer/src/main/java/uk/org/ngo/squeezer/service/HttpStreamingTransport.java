@@ -25,18 +25,12 @@ import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpScheme;
 import org.eclipse.jetty.http.HttpStatus;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.HttpCookie;
@@ -44,6 +38,10 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -66,6 +64,7 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
     public static final String PREFIX = "http-streaming.json";
     public static final String MAX_BUFFER_SIZE_OPTION = "maxBufferSize";
     private static final String TAG = HttpStreamingTransport.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private ScheduledExecutorService _scheduler;
     private boolean _shutdownScheduler;
@@ -74,11 +73,13 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
     private TransportListener _listener;
 
     private final HttpClient _httpClient;
+    private final BayeuxMessageDecoder _decoder = new BayeuxMessageDecoder();
     private final List<Request> _requests = new ArrayList<>();
     private volatile boolean _aborted;
     private volatile int _maxBufferSize;
     private volatile boolean _appendMessageType;
     private volatile CookieManager _cookieManager;
+    private volatile long _minConnectInterval;
 
     public HttpStreamingTransport(Map<String, Object> options, HttpClient httpClient) {
         this(null, options, httpClient);
@@ -91,6 +92,15 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         setOptionPrefix(PREFIX);
     }
 
+    /**
+     * Wait at least this many milliseconds between connect messages, even if the server advises a
+     * shorter interval. The server then batches its messages, so the radio wakes up less often.
+     * Zero to follow the advice of the server.
+     */
+    public void setMinConnectInterval(long minConnectInterval) {
+        _minConnectInterval = minConnectInterval;
+    }
+
     @Override
     public void setMessageTransportListener(TransportListener listener) {
         _listener = listener;
@@ -293,10 +303,13 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                 Response response = result.getResponse();
                 int status = response.getStatus();
                 if (status == HttpStatus.OK_200) {
-                    String content = getContentAsString();
-                    if (content != null && content.length() > 0) {
+                    byte[] content = getContent();
+                    if (content != null && content.length > 0) {
                         try {
-                            List<Message.Mutable> messages = parseMessages(content);
+                            List<Message.Mutable> messages;
+                            synchronized (_decoder) {
+                                messages = _decoder.decode(content, 0, content.length);
+                            }
                             //Log.v(TAG, "Received messages " + messages);
                             for (Message.Mutable message : messages) {
                                 // LMS echoes the data field in the publish response for messages to the
@@ -333,26 +346,28 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         });
     }
 
-    private static void sendText(PrintWriter writer, String json, HttpFields customHeaders) {
+    private static void sendText(OutputStream outputStream, String json, HttpFields customHeaders) throws IOException {
+        byte[] content = json.getBytes(UTF_8);
         StringBuilder msg = new StringBuilder("POST /cometd HTTP/1.1\r\n" +
                 HttpHeader.CONTENT_TYPE.asString() + ": text/json;charset=UTF-8\r\n" +
-                HttpHeader.CONTENT_LENGTH.asString() + ": " + json.length() + "\r\n");
+                HttpHeader.CONTENT_LENGTH.asString() + ": " + content.length + "\r\n");
 
         for (HttpField httpField : customHeaders) {
             if (httpField.getHeader() != HttpHeader.ACCEPT_ENCODING) {
                 msg.append(httpField.getName()).append(": ").append(httpField.getValue()).append("\r\n");
             }
         }
-        msg.append("\r\n").append(json);
-        //Log.v(TAG,"sendtext: " + msg);
-        writer.print(msg.toString());
-        writer.flush();
+        msg.append("\r\n");
+        //Log.v(TAG,"sendtext: " + msg + json);
+        outputStream.write(msg.toString().getBytes(UTF_8));
+        outputStream.write(content);
+        outputStream.flush();
     }
 
     private class Delegate {
         private final Socket socket;
         private final HttpFields headers;
-        private PrintWriter writer;
+        private OutputStream writer;
         private boolean connected;
 
         private final Map<String, Exchange> _exchanges = new ConcurrentHashMap<>();
@@ -381,7 +396,7 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         public void connect(String host, int port) throws IOException {
             socket.connect(new InetSocketAddress(host, port), 4000); // TODO use proper timeout
             connected = true;
-            writer = new PrintWriter(socket.getOutputStream());
+            writer = new BufferedOutputStream(socket.getOutputStream());
             new ListeningThread(this, socket.getInputStream()).start();
         }
 
@@ -478,7 +493,7 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         }
 
         public void send(String content) {
-            PrintWriter session;
+            OutputStream session;
             synchronized (this) {
                 session = writer;
             }
@@ -486,22 +501,15 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                 if (session == null)
                     throw new IOException("Unconnected");
 
-                sendText(session, content, headers);
+                // Requests are sent from different threads, make sure they are not interleaved
+                synchronized (session) {
+                    sendText(session, content, headers);
+                }
             } catch (Throwable x) {
                 fail(x, "Exception");
             }
         }
 
-        private void onData(String data) {
-            try {
-                List<Message.Mutable> messages = parseMessages (data);
-                //Log.v(TAG,"Received messages " + data);
-                onMessages(messages);
-            } catch (ParseException x) {
-                fail(x, "Exception");
-            }
-        }
-
         private void onMessages(List<Message.Mutable> messages) {
             for (Message.Mutable message : messages) {
                 if (isReply(message)) {
@@ -540,6 +548,18 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                                 message.put(Message.ADVICE_FIELD, Collections.singletonMap(Message.INTERVAL_FIELD, interval));
                             }
                         }
+
+                        // Stretch the interval if we want fewer connect messages
+                        long minConnectInterval = _minConnectInterval;
+                        if (minConnectInterval > 0) {
+                            Map<String, Object> connectAdvice = message.getAdvice();
+                            Object connectInterval = (connectAdvice != null) ? connectAdvice.get(Message.INTERVAL_FIELD) : null;
+                            if (!(connectInterval instanceof Number) || ((Number) connectInterval).longValue() < minConnectInterval) {
+                                Map<String, Object> stretchedAdvice = (connectAdvice != null) ? new HashMap<>(connectAdvice) : new HashMap<>();
+                                stretchedAdvice.put(Message.INTERVAL_FIELD, minConnectInterval);
+                                message.put(Message.ADVICE_FIELD, stretchedAdvice);
+                            }
+                        }
                     }
 
                     Exchange exchange = deregisterMessage(message);
@@ -615,13 +635,28 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
         }
     }
 
+    /**
+     * Reads HTTP responses from the streaming connection.
+     * <p>
+     * The socket is read into a reusable {@link ByteBuffer}. Bodies are framed by their declared
+     * lengths (Content-Length, or the size of each chunk when the response is chunked) and fed
+     * to a {@link JsonStreamTokenizer}. Each complete message is decoded straight from the bytes
+     * by a {@link BayeuxMessageDecoder}.
+     */
     private static class ListeningThread extends Thread {
-        private Delegate delegate;
-        private final BufferedReader reader;
+        private static final int BUFFER_SIZE = 8192;
+
+        private final Delegate delegate;
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private final JsonStreamTokenizer tokenizer = new JsonStreamTokenizer();
+        private final BayeuxMessageDecoder decoder = new BayeuxMessageDecoder();
 
-        public ListeningThread(Delegate delegate, InputStream inputStream) throws UnsupportedEncodingException {
+        public ListeningThread(Delegate delegate, InputStream inputStream) {
             this.delegate = delegate;
-            reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            channel = Channels.newChannel(inputStream);
+            buffer.flip();
         }
 
         @Override
@@ -634,20 +669,19 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                     int contentSize = 0;
                     String headerLine;
                     while (!"".equals(headerLine = readLine())) {
-                        if ("Transfer-Encoding: chunked".equals(headerLine))
+                        if ("Transfer-Encoding: chunked".equalsIgnoreCase(headerLine))
                             chunked = true;
-                        int pos = headerLine.indexOf("Content-Length: ");
-                        if (pos == 0) {
-                            contentSize = Integer.parseInt(headerLine.substring("Content-Length: ".length()));
+                        if (headerLine.regionMatches(true, 0, "Content-Length: ", 0, "Content-Length: ".length())) {
+                            contentSize = Integer.parseInt(headerLine.substring("Content-Length: ".length()).trim());
                         }
                     }
 
+                    // A body of an earlier response may have ended in the middle of a value
+                    tokenizer.reset();
+
                     if (!chunked) {
-                        String content = read(contentSize);
-                        if (content.length() > 0) {
-                            if (status == HttpStatus.OK_200) {
-                                delegate.onData(content);
-                            }
+                        if (contentSize > 0) {
+                            readBody(contentSize, status);
                         } else {
                             Map<String, Object> failure = new HashMap<>(2);
                             // Convert the 200 into 204 (no content)
@@ -656,23 +690,14 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                             delegate.fail(x, "No content");
                         }
                     } else {
-                        String unprocessed = "";
-                        while (!"0".equals(readLine())) {
-                            String data = readLine();
-                            Log.v(TAG, "data = " + data);
-                            unprocessed += data;
-                            Log.v(TAG, "unprocessed = " + unprocessed);
-                            if (isValidJson(unprocessed)) {
-                                Log.v(TAG, "JSON is valid! Sending data to parser.");
-                                if (status == HttpStatus.OK_200) {
-                                    delegate.onData(unprocessed);
-                                }
-                                unprocessed = "";
-                            } else {
-                                Log.v(TAG, "JSON is not valid! Appending to next chunk.");
-                            }
+                        int chunkSize;
+                        while ((chunkSize = parseChunkSize(readLine())) > 0) {
+                            readBody(chunkSize, status);
+                            readLine();// CRLF which terminates the chunk data
+                        }
+                        // Skip trailers up to the empty line after the last chunk
+                        while (!"".equals(readLine())) {
                         }
-                        readLine();//Read final/empty chunk
                         delegate.disconnect("End of chunks");
                     }
 
@@ -687,22 +712,32 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
                         delegate.fail(e, "Server disconnected");
                     }
                     return;
+                } catch (ParseException | NumberFormatException e) {
+                    delegate.fail(e, "Exception");
+                    return;
                 }
             }
         }
 
-        private boolean isValidJson(String jsonStr) {
-            try {
-                JSONTokener tokenizer = new JSONTokener(jsonStr);
-                while (tokenizer.more()) {
-                    Object json = tokenizer.nextValue();
-                    if (!(json instanceof JSONObject || json instanceof JSONArray)) {
-                        return false;
+        /**
+         * Feed the next size bytes of the stream to the tokenizer, and deliver complete messages
+         * to the delegate.
+         */
+        private void readBody(int size, int status) throws IOException, ParseException {
+            while (size > 0) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                int count = Math.min(size, buffer.remaining());
+                tokenizer.feed(buffer, count);
+                size -= count;
+
+                while (tokenizer.next()) {
+                    if (status == HttpStatus.OK_200) {
+                        //Log.v(TAG,"Received messages " + new String(tokenizer.array(), tokenizer.valueOffset(), tokenizer.valueLength(), UTF_8));
+                        delegate.onMessages(decoder.decode(tokenizer.array(), tokenizer.valueOffset(), tokenizer.valueLength()));
                     }
                 }
-                return true;
-            } catch (JSONException e) {
-                return false;
             }
         }
 
@@ -718,21 +753,45 @@ public class HttpStreamingTransport extends HttpClientTransport implements Messa
             return -1;
         }
 
+        /** Parse the hex size of a chunk, ignoring any chunk extensions. */
+        private int parseChunkSize(String chunkSizeLine) {
+            int end = chunkSizeLine.indexOf(';');
+            return Integer.parseInt((end < 0 ? chunkSizeLine : chunkSizeLine.substring(0, end)).trim(), 16);
+        }
+
+        /**
+         * Read a line of the HTTP protocol (status line, headers and chunk sizes), without the
+         * line terminator. These are ASCII, so the bytes are appended as is.
+         */
         private String readLine() throws IOException {
-            String inputLine = reader.readLine();
-            if (inputLine == null) {
-                throw new EOFException();
+            line.setLength(0);
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                char c = (char) (buffer.get() & 0xff);
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                line.append(c);
             }
-            return inputLine;
         }
 
-        private String read(int size) throws IOException {
-            char[] buffer = new char[size];
-            int length = reader.read(buffer);
-            if (length != size) {
-                throw new EOFException("Expected " + size + " characters, but got " + length);
+        /** Read more bytes from the socket into the (empty) buffer. */
+        private void fill() throws IOException {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException();
             }
-            return new String(buffer);
         }
     }
 
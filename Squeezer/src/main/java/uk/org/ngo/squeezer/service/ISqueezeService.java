@@ -21,7 +21,6 @@ import androidx.annotation.Nullable;
 
 import java.util.Collection;
 
-import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.model.Action;
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
 import uk.org.ngo.squeezer.model.Alarm;
@@ -34,7 +33,7 @@ public interface ISqueezeService {
     /**
      * @return the EventBus the activity posts events to.
      */
-    @NonNull EventBus getEventBus();
+    @NonNull SqueezeService.EventBus getEventBus();
 
     // Instructing the service to connect to the SqueezeCenter server:
     // hostPort is the port of the CLI interface.
@@ -158,6 +157,12 @@ public interface ISqueezeService {
      */
     void pluginItems(int start, JiveItem item, Action action, IServiceItemListCallback<JiveItem> callback) throws SqueezeService.HandshakeNotCompleteException;
 
+    /**
+     * @return True if the items of the <code>go</code> action with the given input are read from
+     * the local copy of the library, so they can be ordered for every change of the input.
+     */
+    boolean isMirrored(Action action, String input);
+
     /**
      * Start an asynchronous fetch of the squeezeservers generic menu items with no paging nor extra parameters.
      * <p>
@@ -0,0 +1,156 @@
+package uk.org.ngo.squeezer.service;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Incremental tokenizer which splits a stream of UTF-8 encoded JSON into complete top level JSON
+ * values.
+ * <p>
+ * Bytes are supplied with {@link #feed(ByteBuffer, int)} as they arrive from the server, and
+ * complete values are retrieved with {@link #next()}. The scanner state (nesting depth, inside a
+ * string, pending escape) is kept between calls, so every byte is examined exactly once regardless
+ * of how the server splits the stream into chunks. No parsing is done here, the bytes of each
+ * complete value are handed on to the {@link BayeuxMessageDecoder}.
+ * <p>
+ * Scanning is done on the raw bytes. This is safe because all bytes of a multi-byte UTF-8 sequence
+ * are above 0x7F, so they can never be mistaken for the structural characters we look for.
+ * <p>
+ * LMS only sends JSON objects and arrays at the top level, anything else is reported as a
+ * {@link ParseException}.
+ */
+class JsonStreamTokenizer {
+    /** Bytes received but not yet returned as a complete value. */
+    private byte[] buffer = new byte[8192];
+
+    /** Number of valid bytes in {@link #buffer}. */
+    private int length;
+
+    /** Position in {@link #buffer} of the next byte to scan. */
+    private int position;
+
+    /** Position in {@link #buffer} of the start of the current value, or -1 if between values. */
+    private int valueStart = -1;
+
+    /** Range in {@link #buffer} of the value found by the last successful {@link #next()}. */
+    private int valueOffset;
+    private int valueLength;
+
+    /** Current nesting depth of objects and arrays. */
+    private int depth;
+
+    /** True if the scanner is inside a string literal. */
+    private boolean inString;
+
+    /** True if the previous byte was a backslash inside a string literal. */
+    private boolean escape;
+
+    /**
+     * Append newly received bytes to the stream.
+     * <p>
+     * Copies count bytes from the current position of source, and advances its position.
+     */
+    void feed(ByteBuffer source, int count) {
+        ensureCapacity(count);
+        source.get(buffer, length, count);
+        length += count;
+    }
+
+    /**
+     * Scan for the next complete top level value.
+     * <p>
+     * When a value is found its bytes are available from {@link #array()}, {@link #valueOffset()}
+     * and {@link #valueLength()} until the next call to {@link #feed(ByteBuffer, int)} or
+     * {@link #next()}.
+     *
+     * @return True if a complete JSON value was found, false if more bytes are needed.
+     * @throws ParseException If the stream contains something else than objects or arrays at the
+     * top level.
+     */
+    boolean next() throws ParseException {
+        while (position < length) {
+            byte c = buffer[position];
+            if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (depth == 0) {
+                if (c == '{' || c == '[') {
+                    valueStart = position;
+                    depth = 1;
+                } else if (!(c == ' ' || c == '\r' || c == '\n' || c == '\t')) {
+                    throw new ParseException("Unexpected '" + (char) (c & 0xff) + "' between JSON values", position);
+                }
+            } else {
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        if (--depth == 0) {
+                            valueOffset = valueStart;
+                            valueLength = position + 1 - valueStart;
+                            position++;
+                            valueStart = -1;
+                            return true;
+                        }
+                        break;
+                }
+            }
+            position++;
+        }
+
+        compact();
+        return false;
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    int valueOffset() {
+        return valueOffset;
+    }
+
+    int valueLength() {
+        return valueLength;
+    }
+
+    /** Discard any partially received value, e.g. when the connection is closed. */
+    void reset() {
+        length = 0;
+        position = 0;
+        valueStart = -1;
+        depth = 0;
+        inString = false;
+        escape = false;
+    }
+
+    /** Drop bytes already returned or skipped, so the buffer only holds the value in progress. */
+    private void compact() {
+        int keep = (valueStart >= 0 ? valueStart : position);
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, length - keep);
+            length -= keep;
+            position -= keep;
+            if (valueStart >= 0) valueStart = 0;
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
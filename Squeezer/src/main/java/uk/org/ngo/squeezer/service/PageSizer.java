@@ -0,0 +1,125 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the number of items to request in each page of a browse request, from the time and
+ * size of previous responses.
+ * <p>
+ * For each command the fixed cost of a request (the round trip and the work on the server) and
+ * the size of an item are tracked, and for the connection the transfer rate. Pages are sized so
+ * the response is expected in about {@link #PAGE_MILLIS}, or {@link #FIRST_PAGE_MILLIS} for the
+ * first page of a list, so something shows on screen quickly. This gives large pages on fast
+ * connections, and small pages on slow connections and to remote servers.
+ * <p>
+ * Until a command has been measured, pages are sized from the default page size.
+ * <p>
+ * This class is thread safe.
+ */
+class PageSizer {
+    static final int MIN_PAGE_SIZE = 10;
+    static final int MAX_PAGE_SIZE = 200;
+
+    /** Target response time of the first page of a list. */
+    static final long FIRST_PAGE_MILLIS = 150;
+
+    /** Target response time of the following pages. */
+    static final long PAGE_MILLIS = 400;
+
+    /** Weight of a new measurement in the moving averages. */
+    private static final double ALPHA = 0.25;
+
+    /**
+     * Responses smaller than this are dominated by the fixed cost, so they are not used to
+     * measure the transfer rate.
+     */
+    static final int MIN_TRANSFER_BYTES = 8 * 1024;
+
+    private final int defaultPageSize;
+
+    private final Map<String, CommandStatistics> commands = new HashMap<>();
+
+    /** Transfer rate in bytes per millisecond, NaN until measured. */
+    private double bytesPerMilli = Double.NaN;
+
+    PageSizer(int defaultPageSize) {
+        this.defaultPageSize = defaultPageSize;
+    }
+
+    /**
+     * Record a response.
+     *
+     * @param command The command, e.g. "browselibrary items".
+     * @param elapsedMillis Time from publishing the request to receiving the response.
+     * @param bytes Size of the response, or -1 if not known.
+     * @param items Number of items in the response.
+     */
+    synchronized void update(String command, long elapsedMillis, int bytes, int items) {
+        if (bytes < 0) {
+            return;
+        }
+        elapsedMillis = Math.max(1, elapsedMillis);
+        if (bytes >= MIN_TRANSFER_BYTES) {
+            bytesPerMilli = average(bytesPerMilli, bytes / (double) elapsedMillis);
+        }
+
+        CommandStatistics statistics = commands.get(command);
+        if (statistics == null) {
+            commands.put(command, statistics = new CommandStatistics());
+        }
+        double transferMillis = (Double.isNaN(bytesPerMilli) ? 0 : bytes / bytesPerMilli);
+        statistics.latencyMillis = average(statistics.latencyMillis, Math.max(0, elapsedMillis - transferMillis));
+        if (items > 0) {
+            statistics.bytesPerItem = average(statistics.bytesPerItem, bytes / (double) items);
+        }
+    }
+
+    /** @return Number of items to request in the first page of a list. */
+    synchronized int getFirstPageSize(String command) {
+        return pageSize(command, FIRST_PAGE_MILLIS);
+    }
+
+    /** @return Number of items to request in the following pages of a list. */
+    synchronized int getPageSize(String command) {
+        return pageSize(command, PAGE_MILLIS);
+    }
+
+    private int pageSize(String command, long targetMillis) {
+        CommandStatistics statistics = commands.get(command);
+        double items;
+        if (statistics == null || Double.isNaN(bytesPerMilli) || Double.isNaN(statistics.bytesPerItem)) {
+            items = defaultPageSize * targetMillis / (double) PAGE_MILLIS;
+        } else {
+            items = (targetMillis - statistics.latencyMillis) * bytesPerMilli / statistics.bytesPerItem;
+        }
+        return (int) Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, items));
+    }
+
+    private static double average(double average, double value) {
+        return (Double.isNaN(average) ? value : average + ALPHA * (value - average));
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("PageSizer{bytesPerMilli=").append((int) bytesPerMilli);
+        for (Map.Entry<String, CommandStatistics> entry : commands.entrySet()) {
+            sb.append(", ").append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    private static class CommandStatistics {
+        private double latencyMillis = Double.NaN;
+        private double bytesPerItem = Double.NaN;
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "{latency=" + (int) latencyMillis + "ms, bytesPerItem=" + (int) bytesPerItem + "}";
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Changes the user made to the state of a player, which are shown right away, before the server
+ * has confirmed them.
+ * <p>
+ * Each change is tagged with the id of the command which made it. Until a status from the server
+ * agrees with the change, the server has acknowledged the command, or the change times out, values
+ * in a status which contradict it are ignored. So a status which was sent before the command was
+ * handled doesn't flip the state back. A later change to the same field replaces the earlier one.
+ * <p>
+ * If the command fails, or no status settles the change in time, the change is removed, see
+ * {@link #remove(int)}, and the caller must get the state of the player from the server.
+ * <p>
+ * This class is thread safe.
+ */
+class PendingChanges {
+    /** Milliseconds to wait for the server to confirm a change. */
+    static final long TIMEOUT = 2000;
+
+    /** Seconds a position in a status may differ from a seek, and still agree with it. */
+    private static final double POSITION_TOLERANCE = 1.5;
+
+    /** The parts of the player state which may be changed by the user. */
+    enum Field {
+        PLAY_STATUS,
+        POWER,
+        SHUFFLE,
+        REPEAT,
+        VOLUME,
+        /** The position in the song, in seconds. */
+        TIME,
+    }
+
+    private final Map<Field, Change> changes = new EnumMap<>(Field.class);
+
+    private int nextId;
+
+    /**
+     * Record a change the user made.
+     *
+     * @param value The new value, in the form it has in {@link #accept(Field, Object, long)}
+     * @return The id of the change
+     */
+    synchronized int expect(Field field, @NonNull Object value, long now) {
+        Change change = new Change(++nextId, value, now);
+        changes.put(field, change);
+        return change.id;
+    }
+
+    /**
+     * Check a value of a field in a status from the server against the change which is pending
+     * for the field, if any. The change is done if the value agrees with it, or it has timed out.
+     *
+     * @return True if the value must be applied, false if it contradicts a pending change.
+     */
+    synchronized boolean accept(Field field, Object value, long now) {
+        Change change = changes.get(field);
+        if (change == null) {
+            return true;
+        }
+        if (change.acknowledged || agrees(field, change, value, now) || now - change.since >= TIMEOUT) {
+            changes.remove(field);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The server has handled the command which made a change, so the next status tells the state
+     * of the player, whether it agrees with the change or not.
+     */
+    synchronized void acknowledge(int id) {
+        Change change = find(id);
+        if (change != null) {
+            change.acknowledged = true;
+        }
+    }
+
+    /**
+     * Stop waiting for a change, because its command failed or it has timed out.
+     *
+     * @return True if the change was still waiting for a status, so the shown state may be wrong.
+     */
+    synchronized boolean remove(int id) {
+        Change change = find(id);
+        return change != null && changes.values().remove(change);
+    }
+
+    private Change find(int id) {
+        for (Change change : changes.values()) {
+            if (change.id == id) {
+                return change;
+            }
+        }
+        return null;
+    }
+
+    synchronized boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    private static boolean agrees(Field field, Change change, Object value, long now) {
+        if (field == Field.TIME) {
+            // The song keeps playing while the status is under way
+            if (!(value instanceof Number)) {
+                return false;
+            }
+            double position = ((Number) value).doubleValue();
+            double expected = ((Number) change.value).doubleValue();
+            return position >= expected - POSITION_TOLERANCE &&
+                    position <= expected + (now - change.since) / 1000.0 + POSITION_TOLERANCE;
+        }
+        return Objects.equals(change.value, value);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "PendingChanges" + changes;
+    }
+
+    private static class Change {
+        private final int id;
+        private final Object value;
+        private final long since;
+        private boolean acknowledged;
+
+        private Change(int id, Object value, long since) {
+            this.id = id;
+            this.value = value;
+            this.since = since;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "#" + id + "=" + value + (acknowledged ? " (acknowledged)" : "");
+        }
+    }
+}
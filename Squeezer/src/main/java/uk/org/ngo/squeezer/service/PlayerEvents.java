@@ -0,0 +1,161 @@
+package uk.org.ngo.squeezer.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.ngo.squeezer.model.Player;
+import uk.org.ngo.squeezer.model.PlayerState;
+import uk.org.ngo.squeezer.service.event.MusicChanged;
+import uk.org.ngo.squeezer.service.event.PlayStatusChanged;
+import uk.org.ngo.squeezer.service.event.PlayerChanges;
+import uk.org.ngo.squeezer.service.event.PlayerStateChanged;
+import uk.org.ngo.squeezer.service.event.PlayerVolume;
+import uk.org.ngo.squeezer.service.event.PlaylistChanged;
+import uk.org.ngo.squeezer.service.event.PowerStatusChanged;
+import uk.org.ngo.squeezer.service.event.RepeatStatusChanged;
+import uk.org.ngo.squeezer.service.event.ShuffleStatusChanged;
+import uk.org.ngo.squeezer.service.event.SongTimeChanged;
+
+/**
+ * Collects the changes to each player, and posts them once per display frame on the main thread,
+ * as a {@link PlayerChanges} event. So a player status which changes the song, the play status
+ * and the position wakes the subscribers once, instead of once for each kind of change.
+ * <p>
+ * The events for each kind of change are posted after the {@link PlayerChanges} event, for the
+ * subscribers which haven't moved on. They are made from the state of the player when they are
+ * posted, so they reflect the latest status. The song time is only posted if there are
+ * subscribers for it, as it changes with nearly every status.
+ * <p>
+ * This class is thread safe.
+ */
+class PlayerEvents implements Choreographer.FrameCallback {
+    /**
+     * Post the changes after this many milliseconds if no frame has come by then. Frames are
+     * not drawn while the screen is off, but the notification must still be updated.
+     */
+    private static final long MAX_DELAY = 50;
+
+    @NonNull
+    private final SqueezeService.EventBus eventBus;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Changes which are not posted yet, by player id. */
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /** True if a flush is scheduled. */
+    private boolean scheduled;
+
+    private final Runnable flush = this::flush;
+    private final Runnable postFrameCallback = () -> Choreographer.getInstance().postFrameCallback(this);
+
+    PlayerEvents(@NonNull SqueezeService.EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /** Add changes to a player, to be posted with the next frame. */
+    void add(Player player, @PlayerChanges.Change int changes) {
+        synchronized (this) {
+            Pending playerChanges = pending.get(player.getId());
+            if (playerChanges == null) {
+                pending.put(player.getId(), new Pending(player, changes));
+            } else {
+                playerChanges.player = player;
+                playerChanges.changes |= changes;
+            }
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+
+        // A flush may run early, if a callback from an earlier schedule is still due. That is
+        // harmless, and cheaper than removing the callbacks at every flush.
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback.run();
+        } else {
+            mainHandler.post(postFrameCallback);
+        }
+        mainHandler.postDelayed(flush, MAX_DELAY);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flush();
+    }
+
+    @MainThread
+    private void flush() {
+        List<Pending> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+        }
+
+        for (Pending playerChanges : changes) {
+            post(playerChanges.player, playerChanges.changes);
+        }
+    }
+
+    private void post(Player player, int changes) {
+        PlayerState playerState = player.getPlayerState();
+        eventBus.post(new PlayerChanges(player, changes));
+
+        if ((changes & PlayerChanges.PLAY_STATUS) != 0 && playerState.getPlayStatus() != null) {
+            eventBus.post(new PlayStatusChanged(playerState.getPlayStatus(), player));
+        }
+        if ((changes & PlayerChanges.PLAYLIST) != 0) {
+            eventBus.post(new PlaylistChanged(player));
+        }
+        if ((changes & PlayerChanges.STATE) != 0) {
+            eventBus.post(new PlayerStateChanged(player));
+        }
+        if ((changes & PlayerChanges.VOLUME) != 0) {
+            eventBus.post(new PlayerVolume(playerState.getCurrentVolume(), player));
+        }
+        if ((changes & PlayerChanges.POWER) != 0) {
+            eventBus.post(new PowerStatusChanged(player));
+        }
+        if ((changes & PlayerChanges.MUSIC) != 0) {
+            eventBus.postSticky(new MusicChanged(player, playerState));
+        }
+        if ((changes & PlayerChanges.SHUFFLE) != 0) {
+            eventBus.post(new ShuffleStatusChanged(player, playerState.getShuffleStatus()));
+        }
+        if ((changes & PlayerChanges.REPEAT) != 0) {
+            eventBus.post(new RepeatStatusChanged(player, playerState.getRepeatStatus()));
+        }
+        if ((changes & PlayerChanges.TIME) != 0 && eventBus.hasSubscriberForEvent(SongTimeChanged.class)) {
+            eventBus.post(player.getTrackElapsed());
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "PlayerEvents{pending=" + pending.size() + "}";
+    }
+
+    private static class Pending {
+        Player player;
+        int changes;
+
+        Pending(Player player, int changes) {
+            this.player = player;
+            this.changes = changes;
+        }
+    }
+}
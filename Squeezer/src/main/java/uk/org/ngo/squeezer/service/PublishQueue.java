@@ -0,0 +1,365 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Queue of messages waiting to be published to the server.
+ * <p>
+ * Up to {@link #getWindow()} messages may be outstanding (published but not yet acknowledged)
+ * at the same time, so independent requests do not have to wait for each other's round trip.
+ * <p>
+ * When there is room in the window, the message with the highest {@link Priority} is published
+ * first. To make sure lower priorities are not starved, a waiting message is promoted one
+ * priority class for every {@link #AGING_MILLIS} it has waited. Messages of the same class are
+ * published in the order they were added.
+ * <p>
+ * Messages with the same ordering key are published one at a time, in the order they were
+ * added regardless of their priority, because the requests are not guaranteed to reach the
+ * server in the order they are published. Commands for a player must not overtake each other,
+ * nor must subscribe and unsubscribe requests for the same channel. Messages without an ordering
+ * key are only limited by the window.
+ * <p>
+ * Messages which set a value, such as the volume or the position in the current song, may have a
+ * coalescing key. A message replaces a waiting message with the same coalescing key, so when
+ * the user drags a slider, only the latest value is sent once the previous one is acknowledged.
+ * The replacement keeps the order of messages with the same ordering key, see {@link #add(Item)}.
+ * <p>
+ * This class is not thread safe, it is meant to be used from the handler thread of the client.
+ * Only {@link #getWaitStatistics(Priority)} may be called from other threads.
+ */
+class PublishQueue<T extends PublishQueue.Item> {
+    /** Priority classes, highest first. */
+    enum Priority {
+        /** Commands and subscriptions, which the user is waiting for. */
+        INTERACTIVE,
+        /** Items for the screen the user is looking at. */
+        VISIBLE,
+        /** Items the user is likely to want soon. */
+        PREFETCH,
+        /** Work the user isn't waiting for, such as downloads. */
+        BACKGROUND,
+    }
+
+    interface Item {
+        /** @return Key of the messages which must be published in order, or null. */
+        @Nullable
+        String getOrderingKey();
+
+        @NonNull
+        Priority getPriority();
+
+        /**
+         * @return Key of the messages where only the latest one needs to be published, or null.
+         * Messages with the same coalescing key must have the same ordering key and priority.
+         */
+        @Nullable
+        String getCoalescingKey();
+    }
+
+    /** Time a message must wait to be promoted one priority class. */
+    static final long AGING_MILLIS = 500;
+
+    private final int window;
+
+    /** Messages waiting to be published, for each priority. */
+    private final Map<Priority, Queue<Entry<T>>> queues = new EnumMap<>(Priority.class);
+
+    /** Messages with an ordering key waiting to be published, for each key. */
+    private final Map<String, Deque<Entry<T>>> waitingByKey = new HashMap<>();
+
+    /** Messages with a coalescing key waiting to be published, for each key. */
+    private final Map<String, Entry<T>> waitingByCoalescingKey = new HashMap<>();
+
+    /** Messages published, and not yet acknowledged. */
+    private final Set<T> inFlight = new HashSet<>();
+
+    /** Ordering keys of messages in flight. */
+    private final Set<String> busyKeys = new HashSet<>();
+
+    private final Map<Priority, WaitStatistics> waitStatistics = new EnumMap<>(Priority.class);
+
+    private int size;
+
+    PublishQueue(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1, was " + window);
+        }
+        this.window = window;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedList<>());
+            waitStatistics.put(priority, new WaitStatistics());
+        }
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Add a message to the end of the queue for its priority, or replace a waiting message with
+     * the same coalescing key.
+     * <p>
+     * The new message only takes the place of the one it replaces if no later message with the
+     * same ordering key is waiting. Otherwise the replaced message is dropped and the new one is
+     * added to the end, so it doesn't overtake the later messages. E.g. a relative volume change
+     * which was queued after an absolute one must not be applied after the newer absolute value.
+     *
+     * @return The message which was replaced, or null
+     */
+    @Nullable
+    T add(T item) {
+        T replaced = null;
+        String coalescingKey = item.getCoalescingKey();
+        if (coalescingKey != null) {
+            Entry<T> waiting = waitingByCoalescingKey.get(coalescingKey);
+            if (waiting != null && canReplace(waiting.item, item)) {
+                replaced = waiting.item;
+                if (isLastWithOrderingKey(waiting)) {
+                    // Take the place of the waiting message, so the order is unchanged
+                    waiting.item = item;
+                    return replaced;
+                }
+                queues.get(replaced.getPriority()).remove(waiting);
+                forget(waiting);
+                size--;
+            }
+        }
+
+        Entry<T> entry = new Entry<>(item, now());
+        queues.get(item.getPriority()).add(entry);
+        String key = item.getOrderingKey();
+        if (key != null) {
+            Deque<Entry<T>> waiting = waitingByKey.get(key);
+            if (waiting == null) {
+                waiting = new LinkedList<>();
+                waitingByKey.put(key, waiting);
+            }
+            waiting.add(entry);
+        }
+        if (coalescingKey != null) {
+            waitingByCoalescingKey.put(coalescingKey, entry);
+        }
+        size++;
+        return replaced;
+    }
+
+    /** @return True if no message with the same ordering key was added after the entry. */
+    private boolean isLastWithOrderingKey(Entry<T> entry) {
+        String key = entry.item.getOrderingKey();
+        if (key == null) {
+            return true;
+        }
+        return waitingByKey.get(key).peekLast() == entry;
+    }
+
+    private static boolean canReplace(Item waiting, Item item) {
+        String orderingKey = item.getOrderingKey();
+        return waiting.getPriority() == item.getPriority()
+                && (orderingKey == null ? waiting.getOrderingKey() == null : orderingKey.equals(waiting.getOrderingKey()));
+    }
+
+    /**
+     * Take the next message which may be published now, and count it as in flight until it is
+     * {@link #acknowledge(Item) acknowledged}.
+     *
+     * @return The next message to publish, or null if the window is full or every waiting
+     * message is held back by a message with the same ordering key.
+     */
+    @Nullable
+    T poll() {
+        if (inFlight.size() >= window || size == 0) {
+            return null;
+        }
+
+        long now = now();
+        Entry<T> best = null;
+        long bestRank = Long.MAX_VALUE;
+        for (Priority priority : Priority.values()) {
+            for (Entry<T> entry : queues.get(priority)) {
+                if (isReady(entry)) {
+                    // Only the oldest ready message of each class is a candidate
+                    long rank = priority.ordinal() - (now - entry.queued) / AGING_MILLIS;
+                    if (rank < bestRank) {
+                        best = entry;
+                        bestRank = rank;
+                    }
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        T item = best.item;
+        queues.get(item.getPriority()).remove(best);
+        forget(best);
+        String key = item.getOrderingKey();
+        if (key != null) {
+            busyKeys.add(key);
+        }
+        size--;
+        inFlight.add(item);
+        waitStatistics.get(item.getPriority()).add(now - best.queued);
+        return item;
+    }
+
+    /** A message is ready unless an earlier message with the same ordering key isn't done. */
+    private boolean isReady(Entry<T> entry) {
+        String key = entry.item.getOrderingKey();
+        return key == null || (!busyKeys.contains(key) && waitingByKey.get(key).peek() == entry);
+    }
+
+    /**
+     * Remove waiting messages, e.g. because the client which asked for them is gone.
+     *
+     * @return The number of messages removed.
+     */
+    int removeIf(Predicate<T> filter) {
+        int removed = 0;
+        for (Queue<Entry<T>> queue : queues.values()) {
+            for (Iterator<Entry<T>> iterator = queue.iterator(); iterator.hasNext(); ) {
+                Entry<T> entry = iterator.next();
+                if (filter.test(entry.item)) {
+                    iterator.remove();
+                    forget(entry);
+                    removed++;
+                }
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /** Remove the ordering and coalescing bookkeeping of an entry which leaves the queue. */
+    private void forget(Entry<T> entry) {
+        String key = entry.item.getOrderingKey();
+        if (key != null) {
+            Deque<Entry<T>> waiting = waitingByKey.get(key);
+            waiting.remove(entry);
+            if (waiting.isEmpty()) {
+                waitingByKey.remove(key);
+            }
+        }
+        String coalescingKey = entry.item.getCoalescingKey();
+        if (coalescingKey != null && waitingByCoalescingKey.get(coalescingKey) == entry) {
+            waitingByCoalescingKey.remove(coalescingKey);
+        }
+    }
+
+    /**
+     * Release the slot of a published message, when the server has acknowledged it.
+     *
+     * @return True if the message was in flight.
+     */
+    boolean acknowledge(T item) {
+        if (!inFlight.remove(item)) {
+            return false;
+        }
+        String key = item.getOrderingKey();
+        if (key != null) {
+            busyKeys.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Release the slots of published messages which will not be acknowledged in time, e.g.
+     * because the request expired. A late acknowledgement of a released message is ignored.
+     *
+     * @return The number of messages released.
+     */
+    int acknowledgeIf(Predicate<T> filter) {
+        int released = 0;
+        for (T item : new ArrayList<>(inFlight)) {
+            if (filter.test(item) && acknowledge(item)) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Forget about messages in flight, e.g. when a new connection is established, as they will
+     * never be acknowledged. Waiting messages are kept.
+     */
+    void reset() {
+        inFlight.clear();
+        busyKeys.clear();
+    }
+
+    /** @return The number of messages published and not yet acknowledged. */
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    /** @return The number of messages waiting to be published. */
+    int size() {
+        return size;
+    }
+
+    /** @return Statistics of the time messages of the given priority waited in the queue. */
+    @NonNull
+    WaitStatistics getWaitStatistics(Priority priority) {
+        return waitStatistics.get(priority);
+    }
+
+    long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class Entry<T> {
+        private T item;
+        private final long queued;
+
+        private Entry(T item, long queued) {
+            this.item = item;
+            this.queued = queued;
+        }
+    }
+
+    /** Time messages waited in the queue, from adding until publishing. */
+    static class WaitStatistics {
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+
+        synchronized void add(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized long getAverageMillis() {
+            return (count > 0 ? totalMillis / count : 0);
+        }
+
+        synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @NonNull
+        @Override
+        public synchronized String toString() {
+            return "count=" + count + ", avg=" + getAverageMillis() + "ms, max=" + maxMillis + "ms";
+        }
+    }
+}
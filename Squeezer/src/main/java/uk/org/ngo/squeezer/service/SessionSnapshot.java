@@ -0,0 +1,139 @@
+package uk.org.ngo.squeezer.service;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Parcel;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import uk.org.ngo.squeezer.BuildConfig;
+import uk.org.ngo.squeezer.model.JiveItem;
+import uk.org.ngo.squeezer.model.Player;
+
+/**
+ * The players and home menu of the last session with a server, so the UI can be shown right
+ * away when the app starts, before the connection to the server is complete.
+ * <p>
+ * The snapshot is stored in the parcel format of the model classes. This format is not stable
+ * across versions of the app or of Android, so a snapshot written by another version is ignored.
+ */
+class SessionSnapshot {
+    private static final String TAG = SessionSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "session.snapshot";
+
+    /** Increment when the layout of the snapshot changes. */
+    private static final int FORMAT = 1;
+
+    /** The server the session was with, see {@link uk.org.ngo.squeezer.Preferences.ServerAddress#address()}. */
+    final String server;
+
+    final List<Player> players;
+
+    @Nullable
+    final String activePlayerId;
+
+    @Nullable
+    final String[] mediaDirs;
+
+    /** Home menu of the active player. */
+    final List<JiveItem> homeMenu;
+
+    SessionSnapshot(String server, List<Player> players, @Nullable String activePlayerId, @Nullable String[] mediaDirs, List<JiveItem> homeMenu) {
+        this.server = server;
+        this.players = players;
+        this.activePlayerId = activePlayerId;
+        this.mediaDirs = mediaDirs;
+        this.homeMenu = homeMenu;
+    }
+
+    /**
+     * @return The snapshot of the last session with the given server, or null if there is none
+     * or it can't be read.
+     */
+    @Nullable
+    static SessionSnapshot read(Context context, @NonNull String server) {
+        AtomicFile file = getFile(context);
+        Parcel parcel = Parcel.obtain();
+        try {
+            byte[] bytes = file.readFully();
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != FORMAT || parcel.readInt() != BuildConfig.VERSION_CODE ||
+                    !Build.FINGERPRINT.equals(parcel.readString()) || !server.equals(parcel.readString())) {
+                return null;
+            }
+            List<Player> players = parcel.createTypedArrayList(Player.CREATOR);
+            String activePlayerId = parcel.readString();
+            String[] mediaDirs = parcel.createStringArray();
+            List<JiveItem> homeMenu = parcel.createTypedArrayList(JiveItem.CREATOR);
+            return new SessionSnapshot(server, players, activePlayerId, mediaDirs, homeMenu);
+        } catch (IOException e) {
+            // No snapshot yet
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not read session snapshot", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Replace the stored snapshot with this one. */
+    void write(Context context) {
+        AtomicFile file = getFile(context);
+        Parcel parcel = Parcel.obtain();
+        FileOutputStream out = null;
+        try {
+            parcel.writeInt(FORMAT);
+            parcel.writeInt(BuildConfig.VERSION_CODE);
+            parcel.writeString(Build.FINGERPRINT);
+            parcel.writeString(server);
+            parcel.writeTypedList(players);
+            parcel.writeString(activePlayerId);
+            parcel.writeStringArray(mediaDirs);
+            parcel.writeTypedList(homeMenu);
+
+            out = file.startWrite();
+            out.write(parcel.marshall());
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write session snapshot", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** @return The player with the given id, or null if it is not in the snapshot. */
+    @Nullable
+    Player getPlayer(@Nullable String playerId) {
+        for (Player player : players) {
+            if (player.getId().equals(playerId)) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SessionSnapshot{server=" + server + ", players=" + players.size() +
+                ", activePlayerId=" + activePlayerId + ", homeMenu=" + homeMenu.size() + "}";
+    }
+}
@@ -16,6 +16,7 @@
 
 package uk.org.ngo.squeezer.service;
 
+import java.util.List;
 import java.util.Map;
 
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
@@ -29,7 +30,7 @@ interface SlimClient {
 
     /**
      * Start a connection LMS. Connection progress/status will be reported via
-     * {@link de.greenrobot.event.EventBus}.
+     * {@link SqueezeService.EventBus}.
      *
      * @param service The service hosting this connection.
      */
@@ -49,22 +50,25 @@ interface SlimClient {
      * @param player if non null this command is for a specific player
      * @param cmd Array of command terms
      * @param params Hash of parameters, f.e. {sort = new}. Passed to the server in the form "key:value", f.e. 'sort:new'.
+     * @param localChange Id of the change the command makes to the shown state of the player, see
+     *     {@link #setLocalState(Player, PendingChanges.Field, Object)}, or 0 if none. The change
+     *     is settled when the server responds to the command.
      */
-    void command(Player player, String[] cmd, Map<String, Object> params);
+    void command(Player player, String[] cmd, Map<String, Object> params, int localChange);
 
     /**
      * Send an asynchronous request to the SqueezeboxServer for the specified items.
      * <p>
-     * Items are requested in chunks of <code>R.integer.PageSize</code>, and returned
-     * to the caller via the specified callback.
+     * Items are requested in chunks of pageSize, and returned to the caller via the specified
+     * callback.
      * <p>
-     * If start is zero, this will order one item, to quickly learn the number of items
-     * from the server. When the server response with this item it is transferred to the
-     * caller. The remaining items in the first page are then ordered, and transferred
-     * to the caller when they arrive.
+     * If pageSize is {@link #ADAPTIVE_PAGE_SIZE}, the client chooses the size of each chunk from
+     * how fast the server responds. At least <code>R.integer.PageSize</code> items are ordered,
+     * and more if the connection is fast, so the callback must accept items in chunks of any
+     * size. If start is zero, the first chunk is small, so something can be shown quickly.
      * <p>
      * If start is < 0, it means the caller wants the entire list. They are ordered in
-     * pages, and transferred to the caller as they arrive.
+     * pages, and transferred to the caller in order as they arrive.
      * <p>
      * Otherwise request a page of items starting from start.
      * <p>
@@ -73,17 +77,47 @@ interface SlimClient {
      * @param cmd Array of command terms, f.e. ['playlist', 'jump']
      * @param params Hash of parameters, f.e. {sort = new}. Passed to the server in the form "key:value", f.e. 'sort:new'.
      * @param start index of the first item to fetch. -1 means to fetch all items in chunks of pageSize
-     * @param pageSize Number of items to fetch in each request.
+     * @param pageSize Number of items to fetch in each request, or {@link #ADAPTIVE_PAGE_SIZE}
      * @param callback Received items are returned in this.
      */
     <T> void requestItems(Player player, String[] cmd, Map<String, Object> params, int start, int pageSize, IServiceItemListCallback<T> callback);
 
+    /** Page size which lets the client choose the number of items in each request */
+    int ADAPTIVE_PAGE_SIZE = 0;
+
     /**
      * Notify that the specified client (activity) nno longer wants messages from LMS.
      * @param client messages receiver to remove
      */
     void cancelClientRequests(Object client);
 
+    /**
+     * Turn the local copy of library views on or off. When it is turned off, the copy is
+     * deleted.
+     */
+    void setLibraryMirror(boolean enabled);
+
+    /**
+     * @return True if the response to the browse command can be read from the local copy of the
+     * library, so it doesn't need the server.
+     */
+    boolean isMirrored(Player player, List<String> cmd, Map<String, Object> params);
+
+    /**
+     * Show a change the user made to the state of a player right away, before the server has
+     * confirmed it. See {@link PendingChanges}.
+     *
+     * @param value The new value, in the form given for the field in {@link BaseClient#parseStatus}
+     * @return The id of the change, to pass with the command which makes it
+     */
+    int setLocalState(Player player, PendingChanges.Field field, Object value);
+
+    /**
+     * In low-power mode the connection is kept open with fewer connect messages, so the radio
+     * wakes up less often, at the cost of later updates.
+     */
+    void setLowPower(boolean lowPower);
+
     void requestPlayerStatus(Player player);
 
     void subscribePlayerStatus(Player newActivePlayer, PlayerState.PlayerSubscriptionType subscriptionType);
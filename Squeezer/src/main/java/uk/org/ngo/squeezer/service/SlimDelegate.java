@@ -21,7 +21,6 @@ import androidx.annotation.NonNull;
 import java.util.List;
 import java.util.Map;
 
-import de.greenrobot.event.EventBus;
 import uk.org.ngo.squeezer.model.JiveItem;
 import uk.org.ngo.squeezer.model.SlimCommand;
 import uk.org.ngo.squeezer.itemlist.IServiceItemListCallback;
@@ -32,7 +31,7 @@ class SlimDelegate {
 
     @NonNull private final SlimClient mClient;
 
-    SlimDelegate(@NonNull EventBus eventBus) {
+    SlimDelegate(@NonNull SqueezeService.EventBus eventBus) {
         mClient = new CometClient(eventBus);
     }
 
@@ -48,6 +47,17 @@ class SlimDelegate {
         mClient.cancelClientRequests(client);
     }
 
+    void setLibraryMirror(boolean enabled) {
+        mClient.setLibraryMirror(enabled);
+    }
+
+    boolean isMirrored(Player player, List<String> cmd, Map<String, Object> params) {
+        return mClient.isMirrored(player, cmd, params);
+    }
+
+    void setLowPower(boolean lowPower) {
+        mClient.setLowPower(lowPower);
+    }
 
     void requestPlayerStatus(Player player) {
         mClient.requestPlayerStatus(player);
@@ -123,6 +133,10 @@ class SlimDelegate {
         return mClient.getConnectionState().getPlayers();
     }
 
+    boolean restoreSnapshot(SessionSnapshot snapshot) {
+        return mClient.getConnectionState().restoreSnapshot(snapshot);
+    }
+
     void clearHomeMenu() {
         mClient.getConnectionState().clearHomeMenu();
     }
@@ -150,6 +164,8 @@ class SlimDelegate {
     static class Command extends SlimCommand {
         final SlimClient slimClient;
         final protected Player player;
+        private PendingChanges.Field localField;
+        private Object localValue;
 
         private Command(SlimClient slimClient, Player player) {
             this.slimClient = slimClient;
@@ -184,8 +200,19 @@ class SlimDelegate {
             return this;
         }
 
+        /**
+         * Show the change the command makes to the state of the player right away, before the
+         * server has confirmed it. See {@link PendingChanges}.
+         */
+        public Command localState(PendingChanges.Field field, Object value) {
+            localField = field;
+            localValue = value;
+            return this;
+        }
+
         protected void exec() {
-            slimClient.command(player, cmd(), params);
+            int localChange = (localField != null && player != null ? slimClient.setLocalState(player, localField, localValue) : 0);
+            slimClient.command(player, cmd(), params, localChange);
         }
     }
 
@@ -214,11 +241,11 @@ class SlimDelegate {
         }
 
         private Request(SlimClient slimClient, Player player, int start, IServiceItemListCallback<T> callback) {
-            this(slimClient, player, start, BaseClient.mPageSize, callback);
+            this(slimClient, player, start, SlimClient.ADAPTIVE_PAGE_SIZE, callback);
         }
 
         private Request(SlimClient slimClient, int start, IServiceItemListCallback<T> callback) {
-            this(slimClient, null, start, BaseClient.mPageSize, callback);
+            this(slimClient, null, start, SlimClient.ADAPTIVE_PAGE_SIZE, callback);
         }
 
         private Request(SlimClient slimClient, int start, int pageSize, IServiceItemListCallback<T> callback) {
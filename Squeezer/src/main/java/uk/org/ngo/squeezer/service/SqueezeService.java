@@ -17,6 +17,7 @@
 package uk.org.ngo.squeezer.service;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -34,6 +35,7 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
@@ -41,6 +43,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
+import androidx.fragment.app.Fragment;
 
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
@@ -51,10 +54,18 @@ import android.widget.RemoteViews;
 
 import com.google.common.io.Files;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.greenrobot.eventbus.Subscribe;
 
 import uk.org.ngo.squeezer.NowPlayingActivity;
 import uk.org.ngo.squeezer.Preferences;
@@ -75,8 +86,8 @@ import uk.org.ngo.squeezer.model.PlayerState;
 import uk.org.ngo.squeezer.model.Song;
 import uk.org.ngo.squeezer.service.event.ConnectionChanged;
 import uk.org.ngo.squeezer.service.event.HandshakeComplete;
-import uk.org.ngo.squeezer.service.event.MusicChanged;
-import uk.org.ngo.squeezer.service.event.PlayStatusChanged;
+import uk.org.ngo.squeezer.service.event.HomeMenuEvent;
+import uk.org.ngo.squeezer.service.event.PlayerChanges;
 import uk.org.ngo.squeezer.service.event.PlayerStateChanged;
 import uk.org.ngo.squeezer.service.event.PlayersChanged;
 import uk.org.ngo.squeezer.service.event.SongTimeChanged;
@@ -114,6 +125,19 @@ public class SqueezeService extends Service {
     @NonNull
     private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
 
+    /** Decides when the status subscriptions of the players change. */
+    private final SubscriptionPlanner<PlayerState.PlayerSubscriptionType> mSubscriptionPlanner = new SubscriptionPlanner<>();
+
+    /** Runs the downgrades of status subscriptions which are waiting, see {@link SubscriptionPlanner}. */
+    @Nullable
+    private ScheduledFuture<?> mNextSubscriptionPlan;
+
+    /** Milliseconds without a visible activity before the service goes to low-power mode. */
+    private static final long LOW_POWER_DELAY = 10000;
+
+    /** True in low-power mode, see {@link #setLowPowerMode(boolean)}. Only changed on {@link #mExecutor}. */
+    private volatile boolean mLowPower;
+
     /** True if the handshake with the server has completed, otherwise false. */
     private volatile boolean mHandshakeComplete = false;
 
@@ -201,7 +225,9 @@ public class SqueezeService extends Service {
         setWifiLock(((WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE)).createWifiLock(
                 WifiManager.WIFI_MODE_FULL, "Squeezer_WifiLock"));
 
-        mEventBus.register(this, 1);  // Get events before other subscribers
+        mEventBus.register(this);  // The subscriber methods have a priority, to get events before other subscribers
+
+        restoreSessionSnapshot();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             registerReceiver(deviceIdleModeReceiver, new IntentFilter(
@@ -244,6 +270,7 @@ public class SqueezeService extends Service {
         final SharedPreferences preferences = getSharedPreferences(Preferences.NAME, MODE_PRIVATE);
         scrobblingEnabled = preferences.getBoolean(Preferences.KEY_SCROBBLE_ENABLED, false);
         mFadeInSecs = preferences.getInt(Preferences.KEY_FADE_IN_SECS, 0);
+        mDelegate.setLibraryMirror(preferences.getBoolean(Preferences.KEY_LIBRARY_MIRROR, false));
     }
 
     @Override
@@ -297,14 +324,19 @@ public class SqueezeService extends Service {
     }
 
     /**
-     * Updates the playing status of the current player.
+     * Updates the playing status and current song of the current player.
      * <p>
      * Updates the Wi-Fi lock and ongoing status notification as necessary.
      */
-    public void onEvent(PlayStatusChanged event) {
+    @Subscribe(priority = 1)
+    public void onEvent(PlayerChanges event) {
         if (event.player.equals(mDelegate.getActivePlayer())) {
-            updateWifiLock(event.player.getPlayerState().isPlaying());
-            updateOngoingNotification();
+            if (event.has(PlayerChanges.PLAY_STATUS)) {
+                updateWifiLock(!mLowPower && event.player.getPlayerState().isPlaying());
+            }
+            if (event.has(PlayerChanges.PLAY_STATUS | PlayerChanges.MUSIC)) {
+                updateOngoingNotification();
+            }
         }
     }
 
@@ -327,7 +359,7 @@ public class SqueezeService extends Service {
             mDelegate.subscribeDisplayStatus(prevActivePlayer, false);
             mDelegate.subscribeMenuStatus(prevActivePlayer, false);
         }
-        if (newActivePlayer != null) {
+        if (newActivePlayer != null && !mLowPower) {
             mDelegate.subscribeDisplayStatus(newActivePlayer, true);
             mDelegate.subscribeMenuStatus(newActivePlayer, true);
         }
@@ -343,6 +375,11 @@ public class SqueezeService extends Service {
             // See http://wiki.slimdevices.com/index.php/SqueezePlayAndSqueezeCenterPlugins
             mDelegate.clearHomeMenu();
             mDelegate.requestItems(newActivePlayer, 0, new IServiceItemListCallback<JiveItem>() {
+                @Override
+                public Class<JiveItem> getDataType() {
+                    return JiveItem.class;
+                }
+
                 @Override
                 public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<JiveItem> items, Class<JiveItem> dataType) {
                     mDelegate.addToHomeMenu(count, items);
@@ -379,45 +416,96 @@ public class SqueezeService extends Service {
      * Adjusts the subscription to players' status updates.
      */
     private void updateAllPlayerSubscriptionStates() {
+        long now = SystemClock.elapsedRealtime();
         for (Player player : mDelegate.getPlayers().values()) {
-            updatePlayerSubscription(player, calculateSubscriptionTypeFor(player));
+            updatePlayerSubscription(player, calculateSubscriptionTypeFor(player), now);
+        }
+
+        // Come back for the downgrades which are waiting
+        synchronized (mSubscriptionPlanner) {
+            if (mNextSubscriptionPlan != null) {
+                mNextSubscriptionPlan.cancel(false);
+                mNextSubscriptionPlan = null;
+            }
+            long next = mSubscriptionPlanner.getNextPlan();
+            if (next >= 0) {
+                mNextSubscriptionPlan = mExecutor.schedule(this::updateAllPlayerSubscriptionStates, next - now, TimeUnit.MILLISECONDS);
+            }
         }
     }
 
     /**
      * Determine the correct status subscription type for the given player, based on
      * how frequently we need to know its status.
+     * <p>
+     * The active player gets updates on every change. The other players get updates at an
+     * interval while a screen which shows the players is visible, and no updates otherwise.
+     * In low-power mode only the active player gets updates.
      */
     private PlayerState.PlayerSubscriptionType calculateSubscriptionTypeFor(Player player) {
         Player activePlayer = mDelegate.getActivePlayer();
 
-        if (mEventBus.hasSubscriberForEvent(PlayerStateChanged.class) ||
-                (mEventBus.hasSubscriberForEvent(PlayStatusChanged.class) && player.equals(activePlayer))) {
+        if (mLowPower) {
+            return player.equals(activePlayer)
+                    ? PlayerState.PlayerSubscriptionType.NOTIFY_ON_CHANGE
+                    : PlayerState.PlayerSubscriptionType.NOTIFY_NONE;
+        }
+        if (mEventBus.hasSubscriberForEvent(PlayerChanges.class) && player.equals(activePlayer)) {
             return PlayerState.PlayerSubscriptionType.NOTIFY_ON_CHANGE;
+        } else if (mEventBus.hasSubscriberForEvent(PlayerStateChanged.class)) {
+            return PlayerState.PlayerSubscriptionType.NOTIFY_INTERVAL;
         } else {
             return PlayerState.PlayerSubscriptionType.NOTIFY_NONE;
         }
     }
 
     /**
-     * Manage subscription to a player's status updates.
+     * Switch low-power mode on or off. Low-power mode is for when no activity is visible, so
+     * the notification is all that shows the state of the player. Then only the active player is
+     * subscribed to status changes, display and menu status are unsubscribed, the Wi-Fi lock is
+     * released, and the client sends fewer connect messages.
+     * <p>
+     * Must run on {@link #mExecutor}, so the switches are made in the order they are asked for.
+     */
+    private void setLowPowerMode(boolean lowPower) {
+        if (lowPower == mLowPower) {
+            return;
+        }
+        Log.i(TAG, (lowPower ? "Entering" : "Leaving") + " low-power mode");
+        mLowPower = lowPower;
+        mDelegate.setLowPower(lowPower);
+
+        Player activePlayer = mDelegate.getActivePlayer();
+        if (activePlayer != null && mDelegate.isConnected()) {
+            mDelegate.subscribeDisplayStatus(activePlayer, !lowPower);
+            mDelegate.subscribeMenuStatus(activePlayer, !lowPower);
+        }
+        updateAllPlayerSubscriptionStates();
+        updateWifiLock(!lowPower && activePlayer != null && activePlayer.getPlayerState().isPlaying());
+    }
+
+    /**
+     * Manage subscription to a player's status updates. A lower subscription type is only set
+     * when it has been wanted for a while, see {@link SubscriptionPlanner}.
      *
      * @param player player to manage.
      * @param playerSubscriptionType the new subscription type
      */
     private void updatePlayerSubscription(
             Player player,
-            @NonNull PlayerState.PlayerSubscriptionType playerSubscriptionType) {
+            @NonNull PlayerState.PlayerSubscriptionType playerSubscriptionType, long now) {
         PlayerState playerState = player.getPlayerState();
 
         // Do nothing if the player subscription type hasn't changed. This prevents sending a
         // subscription update "status" message which will be echoed back by the server and
         // trigger processing of the status message by the service.
-        if (playerState.getSubscriptionType().equals(playerSubscriptionType)) {
+        PlayerState.PlayerSubscriptionType subscriptionType = mSubscriptionPlanner.plan(player.getId(),
+                playerState.getSubscriptionType(), playerSubscriptionType, now);
+        if (subscriptionType == null) {
             return;
         }
 
-        mDelegate.subscribePlayerStatus(player, playerSubscriptionType);
+        mDelegate.subscribePlayerStatus(player, subscriptionType);
     }
 
     /**
@@ -627,6 +715,7 @@ public class SqueezeService extends Service {
         return PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
+    @Subscribe(priority = 1)
     public void onEvent(ConnectionChanged event) {
         if (ConnectionState.isConnected(event.connectionState) ||
                 ConnectionState.isConnectInProgress(event.connectionState)) {
@@ -639,6 +728,7 @@ public class SqueezeService extends Service {
             telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_NONE);
 
             mHandshakeComplete = false;
+            mSubscriptionPlanner.clear();
             stopForeground();
         }
     }
@@ -696,16 +786,43 @@ public class SqueezeService extends Service {
         stopSelf();
     }
 
+    @Subscribe(priority = 1)
     public void onEvent(HandshakeComplete event) {
         mHandshakeComplete = true;
     }
 
-    public void onEvent(MusicChanged event) {
-        if (event.player.equals(mDelegate.getActivePlayer())) {
-            updateOngoingNotification();
+    /**
+     * Show the players and home menu of the last session with the server while connecting. The
+     * snapshot is small, so it is read right away, before any activity asks for the home menu.
+     */
+    private void restoreSessionSnapshot() {
+        Preferences preferences = new Preferences(this);
+        if (!preferences.hasServerConfig()) {
+            return;
+        }
+        SessionSnapshot snapshot = SessionSnapshot.read(this, preferences.getServerAddress().address());
+        if (snapshot != null && mDelegate.restoreSnapshot(snapshot)) {
+            Log.i(TAG, "Restored " + snapshot);
         }
     }
 
+    /** Save the session when the home menu of the active player is complete or updated. */
+    @Subscribe(priority = 1)
+    public void onEvent(HomeMenuEvent event) {
+        Player activePlayer = mDelegate.getActivePlayer();
+        if (!mDelegate.isConnected() || activePlayer == null) {
+            return;
+        }
+        final SessionSnapshot snapshot = new SessionSnapshot(
+                new Preferences(this).getServerAddress().address(),
+                new ArrayList<>(mDelegate.getPlayers().values()),
+                activePlayer.getId(),
+                mDelegate.getMediaDirs(),
+                new ArrayList<>(event.menuItems));
+        mExecutor.execute(() -> snapshot.write(this));
+    }
+
+    @Subscribe(priority = 1)
     public void onEvent(PlayersChanged event) {
         // Figure out the new active player, let everyone know.
         changeActivePlayer(getPreferredPlayer(event.players.values()));
@@ -734,6 +851,11 @@ public class SqueezeService extends Service {
 
     /** A download request will be passed to the download manager for each song called back to this */
     private final IServiceItemListCallback<Song> songDownloadCallback = new IServiceItemListCallback<Song>() {
+        @Override
+        public Class<Song> getDataType() {
+            return Song.class;
+        }
+
         @Override
         public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<Song> items, Class<Song> dataType) {
             final Preferences preferences = new Preferences(SqueezeService.this);
@@ -763,6 +885,11 @@ public class SqueezeService extends Service {
      * If is is a track: Enqueue a download request to the download manager
      */
     private final IServiceItemListCallback<MusicFolderItem> musicFolderDownloadCallback = new IServiceItemListCallback<MusicFolderItem>() {
+        @Override
+        public Class<MusicFolderItem> getDataType() {
+            return MusicFolderItem.class;
+        }
+
         @Override
         public void onItemsReceived(int count, int start, Map<String, Object> parameters, List<MusicFolderItem> items, Class<MusicFolderItem> dataType) {
             for (MusicFolderItem item : items) {
@@ -874,20 +1001,25 @@ public class SqueezeService extends Service {
 
         @Override
         public void adjustVolumeTo(Player player, int newVolume) {
-            mDelegate.command(player).cmd("mixer", "volume", String.valueOf(Math.min(100, Math.max(0, newVolume)))).exec();
+            int volume = Math.min(100, Math.max(0, newVolume));
+            mDelegate.command(player).cmd("mixer", "volume", String.valueOf(volume))
+                    .localState(PendingChanges.Field.VOLUME, volume).exec();
         }
 
         @Override
         public void adjustVolumeTo(int newVolume) {
-            mDelegate.activePlayerCommand().cmd("mixer", "volume", String.valueOf(Math.min(100, Math.max(0, newVolume)))).exec();
+            int volume = Math.min(100, Math.max(0, newVolume));
+            mDelegate.activePlayerCommand().cmd("mixer", "volume", String.valueOf(volume))
+                    .localState(PendingChanges.Field.VOLUME, volume).exec();
         }
 
         @Override
         public void adjustVolumeBy(int delta) {
-            if (delta > 0) {
-                mDelegate.activePlayerCommand().cmd("mixer", "volume", "+" + delta).exec();
-            } else if (delta < 0) {
-                mDelegate.activePlayerCommand().cmd("mixer", "volume", String.valueOf(delta)).exec();
+            Player player = getActivePlayer();
+            if (player != null && delta != 0) {
+                int volume = Math.min(100, Math.max(0, player.getPlayerState().getCurrentVolume() + delta));
+                mDelegate.command(player).cmd("mixer", "volume", (delta > 0 ? "+" : "") + delta)
+                        .localState(PendingChanges.Field.VOLUME, volume).exec();
             }
         }
 
@@ -935,7 +1067,9 @@ public class SqueezeService extends Service {
 
         @Override
         public void togglePower(Player player) {
-            mDelegate.command(player).cmd("power").exec();
+            int power = (player.getPlayerState().isPoweredOn() ? 0 : 1);
+            mDelegate.command(player).cmd("power", String.valueOf(power))
+                    .localState(PendingChanges.Field.POWER, power).exec();
         }
 
         @Override
@@ -1024,17 +1158,20 @@ public class SqueezeService extends Service {
                 // because then we'd get confused when they came back in to us, not being
                 // able to differentiate ours coming back on the listen channel vs. those
                 // of those idiots at the dinner party messing around.
-                mDelegate.command(player).cmd("pause", "1").exec();
+                mDelegate.command(player).cmd("pause", "1")
+                        .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_PAUSE).exec();
                 return true;
             }
 
             if (playStatus.equals(PlayerState.PLAY_STATE_STOP)) {
-                mDelegate.command(player).cmd("play", fadeInSecs()).exec();
+                mDelegate.command(player).cmd("play", fadeInSecs())
+                        .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_PLAY).exec();
                 return true;
             }
 
             if (playStatus.equals(PlayerState.PLAY_STATE_PAUSE)) {
-                mDelegate.command(player).cmd("pause", "0", fadeInSecs()).exec();
+                mDelegate.command(player).cmd("pause", "0", fadeInSecs())
+                        .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_PLAY).exec();
                 return true;
             }
 
@@ -1046,7 +1183,8 @@ public class SqueezeService extends Service {
             if (!isConnected()) {
                 return false;
             }
-            mDelegate.activePlayerCommand().cmd("play", fadeInSecs()).exec();
+            mDelegate.activePlayerCommand().cmd("play", fadeInSecs())
+                    .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_PLAY).exec();
             return true;
         }
 
@@ -1055,7 +1193,8 @@ public class SqueezeService extends Service {
             if(!isConnected()) {
                 return false;
             }
-            mDelegate.activePlayerCommand().cmd("pause", "1", fadeInSecs()).exec();
+            mDelegate.activePlayerCommand().cmd("pause", "1", fadeInSecs())
+                    .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_PAUSE).exec();
             return true;
         }
 
@@ -1064,7 +1203,8 @@ public class SqueezeService extends Service {
             if (!isConnected()) {
                 return false;
             }
-            mDelegate.activePlayerCommand().cmd("stop").exec();
+            mDelegate.activePlayerCommand().cmd("stop")
+                    .localState(PendingChanges.Field.PLAY_STATUS, PlayerState.PLAY_STATE_STOP).exec();
             return true;
         }
 
@@ -1100,7 +1240,16 @@ public class SqueezeService extends Service {
             if (!isConnected()) {
                 return false;
             }
-            mDelegate.activePlayerCommand().cmd("button", "shuffle").exec();
+            // Set the next shuffle mode explicitly, so it can be shown before the server confirms it
+            Player player = getActivePlayer();
+            PlayerState.ShuffleStatus shuffleStatus = (player != null ? player.getPlayerState().getShuffleStatus() : null);
+            if (shuffleStatus == null) {
+                mDelegate.activePlayerCommand().cmd("button", "shuffle").exec();
+                return true;
+            }
+            int shuffle = (shuffleStatus.getId() + 1) % PlayerState.ShuffleStatus.values().length;
+            mDelegate.command(player).cmd("playlist", "shuffle", String.valueOf(shuffle))
+                    .localState(PendingChanges.Field.SHUFFLE, shuffle).exec();
             return true;
         }
 
@@ -1109,7 +1258,16 @@ public class SqueezeService extends Service {
             if (!isConnected()) {
                 return false;
             }
-            mDelegate.activePlayerCommand().cmd("button", "repeat").exec();
+            // Set the next repeat mode explicitly, so it can be shown before the server confirms it
+            Player player = getActivePlayer();
+            PlayerState.RepeatStatus repeatStatus = (player != null ? player.getPlayerState().getRepeatStatus() : null);
+            if (repeatStatus == null) {
+                mDelegate.activePlayerCommand().cmd("button", "repeat").exec();
+                return true;
+            }
+            int repeat = (repeatStatus.getId() + 1) % PlayerState.RepeatStatus.values().length;
+            mDelegate.command(player).cmd("playlist", "repeat", String.valueOf(repeat))
+                    .localState(PendingChanges.Field.REPEAT, repeat).exec();
             return true;
         }
 
@@ -1237,7 +1395,8 @@ public class SqueezeService extends Service {
                 return false;
             }
 
-            mDelegate.activePlayerCommand().cmd("time", String.valueOf(seconds)).exec();
+            mDelegate.activePlayerCommand().cmd("time", String.valueOf(seconds))
+                    .localState(PendingChanges.Field.TIME, (double) seconds).exec();
 
             return true;
         }
@@ -1340,10 +1499,17 @@ public class SqueezeService extends Service {
         /* Start an asynchronous fetch of the squeezeservers generic menu items */
         @Override
         public void pluginItems(int start, JiveItem item, Action action, IServiceItemListCallback<JiveItem>  callback) throws SqueezeService.HandshakeNotCompleteException {
-            if (!mHandshakeComplete) {
+            Map<String, Object> params = action.action.params(item.inputValue);
+            // Mirrored library views can be read while (re)connecting
+            if (!mHandshakeComplete && !mDelegate.isMirrored(getActivePlayer(), action.action.cmd, params)) {
                 throw new HandshakeNotCompleteException("Handshake with server has not completed.");
             }
-            mDelegate.requestItems(getActivePlayer(), start, callback).cmd(action.action.cmd).params(action.action.params(item.inputValue)).exec();
+            mDelegate.requestItems(getActivePlayer(), start, callback).cmd(action.action.cmd).params(params).exec();
+        }
+
+        @Override
+        public boolean isMirrored(Action action, String input) {
+            return mDelegate.isMirrored(getActivePlayer(), action.action.cmd, action.action.params(input));
         }
 
         @Override
@@ -1379,54 +1545,180 @@ public class SqueezeService extends Service {
     }
 
     /**
-     * Calculate and set player subscription states every time a client of the bus
-     * un/registers.
+     * The event bus of the service.
+     * <p>
+     * Subscriber methods are annotated with {@link Subscribe}, which also gives their thread
+     * mode, whether they get sticky events, and their priority. They are listed in an index
+     * generated at compile time, {@link SqueezerEventBusIndex}, so registering doesn't look for
+     * them by reflection. Subscribers must be public named classes to be in the index, anonymous
+     * classes would be looked up by reflection again. Events without subscribers are dropped
+     * quietly.
+     * <p>
+     * Note that the index only replaces the lookup. The bus still calls subscriber methods with
+     * {@link java.lang.reflect.Method#invoke}, as generated dispatch isn't offered by EventBus;
+     * this is a known deviation from compile-time dispatch.
+     * <p>
+     * Calculate and set player subscription states when a client of the bus un/registers, and
+     * the clients which need player status have changed.
      * <p>
      * For example, this ensures that if a new client subscribes and needs real
      * time updates, the player subscription states will be updated accordingly.
      */
-    class EventBus extends de.greenrobot.event.EventBus {
+    public class EventBus {
+        private static final String TAG = "EventBus";
+
+        private final org.greenrobot.eventbus.EventBus bus = org.greenrobot.eventbus.EventBus.builder()
+                .addIndex(new SqueezerEventBusIndex())
+                .logNoSubscriberMessages(false)
+                .sendNoSubscriberEvent(false)
+                .build();
+
+        /**
+         * Whether there were subscribers for PlayerStateChanged (bit 0) and PlayerChanges
+         * (bit 1) when last checked, or -1 if not checked yet.
+         */
+        private int playerStatusInterest = -1;
+
+        /** Whether there were subscribers for SongTimeChanged when last checked. */
+        private boolean songTimeInterest;
+
+        /** Guards {@link #uiSubscribers}, {@link #updating} and {@link #changed}. */
+        private final Object lock = new Object();
+
+        /** Whether a thread is updating the subscription states. */
+        private boolean updating;
+
+        /** Whether subscribers have changed since the updating thread last looked. */
+        private boolean changed;
+
+        /** Registered activities and fragments. They register while they are visible. */
+        private final Set<Object> uiSubscribers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /** Whether {@link #uiSubscribers} was not empty when last checked. */
+        private boolean uiVisible = true;
+
+        /** Enters low-power mode when no activity has been visible for {@link #LOW_POWER_DELAY}. */
+        @Nullable
+        private ScheduledFuture<?> lowPowerFuture;
 
-        @Override
         public void register(Object subscriber) {
-            super.register(subscriber);
-            updateAllPlayerSubscriptionStates();
+            bus.register(subscriber);
+            subscribersChanged(subscriber, true);
         }
 
-        @Override
-        public void register(Object subscriber, int priority) {
-            super.register(subscriber, priority);
-            updateAllPlayerSubscriptionStates();
+        public void unregister(Object subscriber) {
+            bus.unregister(subscriber);
+            subscribersChanged(subscriber, false);
+        }
+
+        public boolean isRegistered(Object subscriber) {
+            return bus.isRegistered(subscriber);
         }
 
-        @Override
         public void post(Object event) {
-            Log.v("EventBus", "post() " + event.getClass().getSimpleName() + ": " + event);
-            super.post(event);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "post() " + event.getClass().getSimpleName() + ": " + event);
+            }
+            bus.post(event);
         }
 
-        @Override
         public void postSticky(Object event) {
-            Log.v("EventBus", "postSticky() " + event.getClass().getSimpleName() + ": " + event);
-            super.postSticky(event);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "postSticky() " + event.getClass().getSimpleName() + ": " + event);
+            }
+            bus.postSticky(event);
         }
 
-        @Override
-        public void registerSticky(Object subscriber) {
-            super.registerSticky(subscriber);
-            updateAllPlayerSubscriptionStates();
+        public void removeAllStickyEvents() {
+            bus.removeAllStickyEvents();
         }
 
-        @Override
-        public void registerSticky(Object subscriber, int priority) {
-            super.registerSticky(subscriber, priority);
-            updateAllPlayerSubscriptionStates();
+        public boolean hasSubscriberForEvent(Class<?> eventClass) {
+            return bus.hasSubscriberForEvent(eventClass);
         }
 
-        @Override
-        public synchronized void unregister(Object subscriber) {
-            super.unregister(subscriber);
-            updateAllPlayerSubscriptionStates();
+        /**
+         * Update the player subscription states if the subscribers which decide them have
+         * changed, see {@link #calculateSubscriptionTypeFor(Player)}. Most clients don't
+         * subscribe to player status, so their un/registering doesn't cost a round of requests.
+         * <p>
+         * Also switch low-power mode, see {@link #setLowPowerMode(boolean)}, when the first
+         * activity or fragment registers, or some time after the last one unregistered.
+         */
+        private void subscribersChanged(Object subscriber, boolean registered) {
+            synchronized (lock) {
+                if (subscriber instanceof Activity || subscriber instanceof Fragment) {
+                    if (registered) {
+                        uiSubscribers.add(subscriber);
+                    } else {
+                        uiSubscribers.remove(subscriber);
+                    }
+                }
+                changed = true;
+                if (updating) {
+                    // The updating thread will see the change
+                    return;
+                }
+                updating = true;
+            }
+
+            // One thread at a time updates, without holding the lock. The bus may deliver a
+            // sticky event while it holds its own lock, and the subscriber may un/register.
+            try {
+                while (true) {
+                    synchronized (lock) {
+                        if (!changed) {
+                            updating = false;
+                            return;
+                        }
+                        changed = false;
+                    }
+                    updateSubscriptions();
+                }
+            } catch (RuntimeException e) {
+                synchronized (lock) {
+                    updating = false;
+                }
+                throw e;
+            }
+        }
+
+        /** Only called by the updating thread, see {@link #subscribersChanged(Object, boolean)}. */
+        private void updateSubscriptions() {
+            int interest = (hasSubscriberForEvent(PlayerStateChanged.class) ? 1 : 0)
+                    | (hasSubscriberForEvent(PlayerChanges.class) ? 2 : 0);
+            if (interest != playerStatusInterest) {
+                playerStatusInterest = interest;
+                updateAllPlayerSubscriptionStates();
+            }
+
+            // The client only ticks the song time while there are subscribers for it, so get a
+            // fresh status to start the ticks.
+            boolean songTime = hasSubscriberForEvent(SongTimeChanged.class);
+            if (songTime && !songTimeInterest) {
+                Player activePlayer = mDelegate.getActivePlayer();
+                if (mDelegate.isConnected() && activePlayer != null && activePlayer.getPlayerState().isPlaying()) {
+                    mDelegate.requestPlayerStatus(activePlayer);
+                }
+            }
+            songTimeInterest = songTime;
+
+            boolean visible;
+            synchronized (lock) {
+                visible = !uiSubscribers.isEmpty();
+            }
+            if (visible != uiVisible) {
+                uiVisible = visible;
+                if (visible) {
+                    if (lowPowerFuture != null) {
+                        lowPowerFuture.cancel(false);
+                        lowPowerFuture = null;
+                    }
+                    mExecutor.execute(() -> setLowPowerMode(false));
+                } else {
+                    lowPowerFuture = mExecutor.schedule(() -> setLowPowerMode(true), LOW_POWER_DELAY, TimeUnit.MILLISECONDS);
+                }
+            }
         }
     }
 }
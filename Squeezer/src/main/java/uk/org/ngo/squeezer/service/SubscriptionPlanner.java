@@ -0,0 +1,72 @@
+package uk.org.ngo.squeezer.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when to change the tier of the status subscription of a player.
+ * <p>
+ * A player which needs a higher tier, f.e. because it became the active player, gets it right
+ * away. A player which needs a lower tier keeps its tier for {@link #DOWNGRADE_DELAY}, so
+ * switching quickly between screens doesn't unsubscribe and subscribe the players again.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <T> The tiers, in increasing order
+ */
+class SubscriptionPlanner<T extends Enum<T>> {
+    /** Milliseconds a player must need a lower tier before it gets it. */
+    static final long DOWNGRADE_DELAY = 5000;
+
+    /** Time each player started to need a lower tier than it has, by player id. */
+    private final Map<String, Long> lowerSince = new HashMap<>();
+
+    /**
+     * @param current The tier the player has
+     * @param wanted The tier the player needs
+     * @return The tier to give the player now, or null to keep the current tier.
+     */
+    @Nullable
+    synchronized T plan(@NonNull String playerId, @NonNull T current, @NonNull T wanted, long now) {
+        if (wanted.compareTo(current) >= 0) {
+            lowerSince.remove(playerId);
+            return (wanted != current ? wanted : null);
+        }
+
+        Long since = lowerSince.get(playerId);
+        if (since == null) {
+            lowerSince.put(playerId, now);
+            return null;
+        }
+        if (now - since >= DOWNGRADE_DELAY) {
+            lowerSince.remove(playerId);
+            return wanted;
+        }
+        return null;
+    }
+
+    /** @return Time to plan again, to make the pending downgrades, or -1 if there are none. */
+    synchronized long getNextPlan() {
+        long next = -1;
+        for (long since : lowerSince.values()) {
+            if (next < 0 || since + DOWNGRADE_DELAY < next) {
+                next = since + DOWNGRADE_DELAY;
+            }
+        }
+        return next;
+    }
+
+    /** Forget the pending downgrades, f.e. when the connection is closed. */
+    synchronized void clear() {
+        lowerSince.clear();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "SubscriptionPlanner{pending=" + lowerSince.keySet() + "}";
+    }
+}
@@ -0,0 +1,92 @@
+package uk.org.ngo.squeezer.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timer wheel for request deadlines.
+ * <p>
+ * Deadlines are rounded up to a whole tick and kept in the slot for that tick, so scheduling
+ * is constant time, and {@link #advance(long)} only looks at the slots which have passed since
+ * it was last called. Deadlines further ahead than one turn of the wheel share slots with
+ * earlier ones, and are left until their tick has come.
+ * <p>
+ * There is no cancel, and each key may only be scheduled once. Callers should check that the
+ * expired work is still outstanding.
+ * <p>
+ * This class is not thread safe, it is meant to be used from the handler thread of the client.
+ */
+class TimerWheel<K> {
+    private final long tickMillis;
+
+    /** For each slot, the keys with a deadline in that slot, and their deadline tick. */
+    private final List<Map<K, Long>> slots;
+
+    /** The last tick processed by {@link #advance(long)} */
+    private long lastTick = Long.MIN_VALUE;
+
+    private int size;
+
+    TimerWheel(long tickMillis, int slotCount) {
+        this.tickMillis = tickMillis;
+        slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new HashMap<>());
+        }
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /** Add a deadline, in the same time base as the time given to {@link #advance(long)}. */
+    void schedule(K key, long deadlineMillis) {
+        long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        if (lastTick != Long.MIN_VALUE && tick <= lastTick) {
+            tick = lastTick + 1;
+        }
+        Long previous = slot(tick).put(key, tick);
+        if (previous == null) {
+            size++;
+        }
+    }
+
+    /** @return The keys with a deadline at or before now, in no particular order. */
+    List<K> advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        List<K> expired = new ArrayList<>();
+        if (lastTick != Long.MIN_VALUE && nowTick <= lastTick) {
+            return expired;
+        }
+
+        long ticks = (lastTick == Long.MIN_VALUE ? slots.size() : Math.min(nowTick - lastTick, slots.size()));
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            for (Iterator<Map.Entry<K, Long>> iterator = slot(tick).entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<K, Long> entry = iterator.next();
+                if (entry.getValue() <= nowTick) {
+                    expired.add(entry.getKey());
+                    iterator.remove();
+                    size--;
+                }
+            }
+        }
+        lastTick = nowTick;
+        return expired;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Map<K, Long> slot(long tick) {
+        int index = (int) (tick % slots.size());
+        return slots.get(index < 0 ? index + slots.size() : index);
+    }
+}
@@ -0,0 +1,68 @@
+package uk.org.ngo.squeezer.service.event;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import uk.org.ngo.squeezer.model.Player;
+
+/**
+ * Event sent on the main thread with everything that changed for a player since the last
+ * display frame, f.e. all the changes in one player status.
+ * <p>
+ * The separate events for each kind of change, such as {@link MusicChanged} and
+ * {@link PlayStatusChanged}, are still sent after this one. Subscribers which care about several
+ * kinds of change should subscribe to this event instead, so they are woken once.
+ */
+public class PlayerChanges {
+    @IntDef(flag = true, value = {PLAYLIST, STATE, VOLUME, POWER, MUSIC, SHUFFLE, REPEAT, TIME, PLAY_STATUS})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Change {}
+
+    /** See {@link PlaylistChanged}. */
+    public static final int PLAYLIST = 1;
+    /** See {@link PlayerStateChanged}. */
+    public static final int STATE = 1 << 1;
+    /** See {@link PlayerVolume}. */
+    public static final int VOLUME = 1 << 2;
+    /** See {@link PowerStatusChanged}. */
+    public static final int POWER = 1 << 3;
+    /** See {@link MusicChanged}. */
+    public static final int MUSIC = 1 << 4;
+    /** See {@link ShuffleStatusChanged}. */
+    public static final int SHUFFLE = 1 << 5;
+    /** See {@link RepeatStatusChanged}. */
+    public static final int REPEAT = 1 << 6;
+    /** See {@link SongTimeChanged}. */
+    public static final int TIME = 1 << 7;
+    /** See {@link PlayStatusChanged}. */
+    public static final int PLAY_STATUS = 1 << 8;
+
+    /** The player with changed state. */
+    @NonNull
+    public final Player player;
+
+    /** What changed, a combination of the constants in this class. */
+    @Change
+    public final int changes;
+
+    public PlayerChanges(@NonNull Player player, @Change int changes) {
+        this.player = player;
+        this.changes = changes;
+    }
+
+    /** @return True if any of the given changes happened. */
+    public boolean has(@Change int change) {
+        return (changes & change) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerChanges{" +
+                "player=" + player +
+                ", changes=" + Integer.toBinaryString(changes) +
+                '}';
+    }
+}
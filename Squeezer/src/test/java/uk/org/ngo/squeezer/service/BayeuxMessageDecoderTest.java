@@ -0,0 +1,134 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import org.cometd.bayeux.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class BayeuxMessageDecoderTest extends TestCase {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String STATUS = "[{\"channel\":\"/abc/slim/playerstatus/00:04:20\"," +
+            "\"data\":{\"mode\":\"play\",\"time\":12.5,\"duration\":240,\"mixer volume\":-30," +
+            "\"remote\":true,\"title\":null,\"item_loop\":[{\"text\":\"Caf\\u00e9 \\\"1\\\"\"," +
+            "\"actions\":{}},{\"text\":\"Sigur Rós\"}]}},{\"successful\":false}]";
+
+    private final BayeuxMessageDecoder decoder = new BayeuxMessageDecoder();
+
+    private List<Message.Mutable> decode(String json) throws ParseException {
+        byte[] bytes = json.getBytes(UTF_8);
+        return decoder.decode(bytes, 0, bytes.length);
+    }
+
+    public void testDecode() throws ParseException {
+        List<Message.Mutable> messages = decode(STATUS);
+        assertEquals(2, messages.size());
+        assertEquals("/abc/slim/playerstatus/00:04:20", messages.get(0).getChannel());
+        assertEquals(Boolean.FALSE, messages.get(1).get(Message.SUCCESSFUL_FIELD));
+
+        Map<String, Object> data = messages.get(0).getDataAsMap();
+        assertEquals("play", data.get("mode"));
+        assertEquals(12.5, data.get("time"));
+        assertEquals(240L, data.get("duration"));
+        assertEquals(-30L, data.get("mixer volume"));
+        assertEquals(Boolean.TRUE, data.get("remote"));
+        assertTrue(data.containsKey("title"));
+        assertNull(data.get("title"));
+
+        Object[] items = (Object[]) data.get("item_loop");
+        assertEquals(2, items.length);
+        assertEquals("Café \"1\"", ((Map) items[0]).get("text"));
+        assertTrue(((Map) ((Map) items[0]).get("actions")).isEmpty());
+        assertEquals("Sigur Rós", ((Map) items[1]).get("text"));
+    }
+
+    public void testSingleObject() throws ParseException {
+        String json = "{\"channel\":\"/meta/connect\",\"successful\":true}";
+        List<Message.Mutable> messages = decode(json);
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).isSuccessful());
+        assertEquals(json.length(), BayeuxMessageDecoder.getEncodedLength(messages.get(0)));
+    }
+
+    public void testKeysAreShared() throws ParseException {
+        Map<String, Object> first = decode(STATUS).get(0).getDataAsMap();
+        Map<String, Object> second = decode(STATUS).get(0).getDataAsMap();
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+    }
+
+    public void testInvalid() {
+        for (String json : new String[]{"{\"a\":}", "[1]", "{\"a\":1", "{\"a\":tru}", "{\"a\":1}x"}) {
+            try {
+                decode(json);
+                fail("Expected ParseException for " + json);
+            } catch (ParseException expected) {
+            }
+        }
+    }
+
+    /** Decode {"a":"<bytes>"} and return the value of "a". */
+    private Object decodeString(int... utf8) throws ParseException {
+        byte[] prefix = "{\"a\":\"".getBytes(UTF_8);
+        byte[] bytes = new byte[prefix.length + utf8.length + 2];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        for (int i = 0; i < utf8.length; i++) {
+            bytes[prefix.length + i] = (byte) utf8[i];
+        }
+        bytes[bytes.length - 2] = '"';
+        bytes[bytes.length - 1] = '}';
+        return decoder.decode(bytes, 0, bytes.length).get(0).get("a");
+    }
+
+    public void testMultiByteCharacters() throws ParseException {
+        assertEquals("\u00e9", decodeString(0xc3, 0xa9));
+        assertEquals("\u20ac", decodeString(0xe2, 0x82, 0xac));
+        assertEquals("\ud83c\udfb5", decodeString(0xf0, 0x9f, 0x8e, 0xb5));
+        assertEquals("\udbff\udfff", decodeString(0xf4, 0x8f, 0xbf, 0xbf));
+    }
+
+    public void testMalformedUtf8() throws ParseException {
+        // Invalid lead bytes
+        assertEquals("x\ufffdy", decodeString('x', 0x80, 'y'));
+        assertEquals("x\ufffdy", decodeString('x', 0xff, 'y'));
+        assertEquals("\ufffd\ufffd", decodeString(0xf5, 0x80));
+
+        // Truncated sequences, the closing quote is not taken as a continuation byte
+        assertEquals("\ufffd", decodeString(0xc3));
+        assertEquals("\ufffd", decodeString(0xe2, 0x82));
+        assertEquals("\ufffdA", decodeString(0xe2, 0x82, 'A'));
+        assertEquals("\ufffd\u00e9", decodeString(0xf0, 0x9f, 0xc3, 0xa9));
+
+        // Overlong forms
+        assertEquals("\ufffd\ufffd", decodeString(0xc0, 0xaf));
+        assertEquals("\ufffd\ufffd\ufffd", decodeString(0xe0, 0x80, 0xaf));
+        assertEquals("\ufffd\ufffd\ufffd\ufffd", decodeString(0xf0, 0x80, 0x80, 0xaf));
+
+        // Surrogates and code points above U+10FFFF
+        assertEquals("\ufffd\ufffd\ufffd", decodeString(0xed, 0xa0, 0x80));
+        assertEquals("\ufffd\ufffd\ufffd\ufffd", decodeString(0xf4, 0x90, 0x80, 0x80));
+    }
+
+    public void testTokenizerSplitsStream() throws ParseException {
+        byte[] bytes = (" " + STATUS + "\r\n" + STATUS).getBytes(UTF_8);
+        ByteBuffer source = ByteBuffer.wrap(bytes);
+        JsonStreamTokenizer tokenizer = new JsonStreamTokenizer();
+        List<Message.Mutable> messages = new ArrayList<>();
+
+        // Feed a few bytes at a time, so values and multi-byte characters are split across reads
+        while (source.hasRemaining()) {
+            tokenizer.feed(source, Math.min(5, source.remaining()));
+            while (tokenizer.next()) {
+                messages.addAll(decoder.decode(tokenizer.array(), tokenizer.valueOffset(), tokenizer.valueLength()));
+            }
+        }
+
+        assertEquals(4, messages.size());
+        assertEquals("Sigur Rós", ((Map) ((Object[]) messages.get(2).getDataAsMap().get("item_loop"))[1]).get("text"));
+    }
+}
@@ -0,0 +1,99 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BootstrapTest extends TestCase {
+    private enum Step {A, B, C, D}
+
+    private final List<Step> run = new ArrayList<>();
+    private final Bootstrap<Step> bootstrap = new Bootstrap<>(Step.class);
+
+    private Runnable action(Step step) {
+        return () -> run.add(step);
+    }
+
+    public void testIndependentStepsStartTogether() {
+        bootstrap.step(Step.A, action(Step.A))
+                .step(Step.B, action(Step.B))
+                .step(Step.C, action(Step.C), Step.A);
+
+        bootstrap.start(1000);
+        assertEquals(Arrays.asList(Step.A, Step.B), run);
+    }
+
+    public void testStepStartsWhenDependenciesAreDone() {
+        bootstrap.step(Step.A, action(Step.A))
+                .step(Step.B, action(Step.B))
+                .step(Step.C, action(Step.C), Step.A, Step.B);
+        bootstrap.start(1000);
+        run.clear();
+
+        bootstrap.done(Step.A, 1100);
+        assertEquals(Collections.emptyList(), run);
+        bootstrap.done(Step.B, 1200);
+        assertEquals(Collections.singletonList(Step.C), run);
+    }
+
+    public void testActionMayCompleteItsStep() {
+        bootstrap.step(Step.A, () -> bootstrap.done(Step.A, 1000))
+                .step(Step.B, action(Step.B), Step.A);
+
+        bootstrap.start(1000);
+        assertEquals(Collections.singletonList(Step.B), run);
+    }
+
+    public void testStepWithoutAction() {
+        bootstrap.step(Step.A, null)
+                .step(Step.B, action(Step.B), Step.A);
+        bootstrap.start(1000);
+        assertTrue(run.isEmpty());
+
+        bootstrap.done(Step.A, 1300);
+        assertEquals(Collections.singletonList(Step.B), run);
+    }
+
+    public void testTimes() {
+        bootstrap.step(Step.A, null)
+                .step(Step.B, null, Step.A);
+        bootstrap.start(1000);
+        bootstrap.done(Step.A, 1250);
+        bootstrap.done(Step.A, 1400);
+
+        assertTrue(bootstrap.isDone(Step.A));
+        assertEquals(250, bootstrap.getTime(Step.A));
+        assertFalse(bootstrap.isDone(Step.B));
+        assertEquals(-1, bootstrap.getTime(Step.B));
+    }
+
+    public void testDoneBeforeStart() {
+        bootstrap.step(Step.A, null)
+                .step(Step.B, action(Step.B), Step.A);
+        bootstrap.done(Step.A, 900);
+        bootstrap.start(1000);
+
+        assertFalse(bootstrap.isDone(Step.A));
+        assertTrue(run.isEmpty());
+    }
+
+    public void testUnknownStepIsIgnored() {
+        bootstrap.step(Step.A, action(Step.A));
+        bootstrap.start(1000);
+        bootstrap.done(Step.D, 1100);
+
+        assertFalse(bootstrap.isDone(Step.D));
+    }
+
+    public void testNoStepsAfterStart() {
+        bootstrap.start(1000);
+        try {
+            bootstrap.step(Step.A, null);
+            fail("Steps can't be added after the start");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import uk.org.ngo.squeezer.service.BrowseCache.Scope;
+
+public class BrowseCacheTest extends TestCase {
+    private final BrowseCache<String> cache = new BrowseCache<>(2);
+
+    public void testScope() {
+        Map<String, Object> none = Collections.emptyMap();
+        assertEquals(Scope.LIBRARY, BrowseCache.getScope(Arrays.asList("browselibrary", "items"), none));
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("browselibrary", "items"), Collections.singletonMap("search", "abba")));
+        assertEquals(Scope.PLAYLIST, BrowseCache.getScope(Collections.singletonList("status"), none));
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("favorites", "items"), none));
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("radios", "items"), none));
+    }
+
+    public void testVolatileLibraryScope() {
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("browselibrary", "items"), Collections.singletonMap("mode", "randomalbums")));
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("browselibrary", "items"), Collections.singletonMap("mode", "playlists")));
+        assertEquals(Scope.NONE, BrowseCache.getScope(Arrays.asList("albums"), Collections.singletonMap("sort", "random")));
+        assertEquals(Scope.LIBRARY, BrowseCache.getScope(Arrays.asList("browselibrary", "items"), Collections.singletonMap("mode", "albums")));
+        assertEquals(Scope.LIBRARY, BrowseCache.getScope(Arrays.asList("albums"), Collections.singletonMap("sort", "new")));
+    }
+
+    public void testLeastRecentlyUsed() {
+        cache.put("a", Scope.LIBRARY, null, "A");
+        cache.put("b", Scope.LIBRARY, null, "B");
+        assertEquals("A", cache.get("a"));
+        cache.put("c", Scope.LIBRARY, null, "C");
+
+        assertNull("Least recently used", cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    public void testNotCacheable() {
+        cache.put("a", Scope.NONE, null, "A");
+        assertNull(cache.get("a"));
+    }
+
+    public void testRescan() {
+        cache.setLibraryState("100", false);
+        cache.put("library", Scope.LIBRARY, null, "L");
+        cache.put("playlist", Scope.PLAYLIST, "player", "P");
+
+        cache.setLibraryState("100", false);
+        assertEquals("L", cache.get("library"));
+
+        cache.setLibraryState("100", true);
+        assertNull("Rescanning", cache.get("library"));
+        cache.put("library", Scope.LIBRARY, null, "L");
+        cache.setLibraryState("200", false);
+        assertNull("Rescanned", cache.get("library"));
+        assertEquals("P", cache.get("playlist"));
+    }
+
+    public void testPlaylist() {
+        cache.put("1", Scope.PLAYLIST, "player1", "1");
+        cache.put("2", Scope.PLAYLIST, "player2", "2");
+
+        cache.invalidatePlaylist("player1");
+        assertNull(cache.get("1"));
+        assertEquals("2", cache.get("2"));
+    }
+}
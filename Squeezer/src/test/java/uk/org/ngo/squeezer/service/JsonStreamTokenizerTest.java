@@ -0,0 +1,106 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonStreamTokenizerTest extends TestCase {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MESSAGE = "[{\"channel\":\"/slim/request\",\"data\":{\"text\":\"Sigur Rós\",\"count\":2}}]";
+
+    private final JsonStreamTokenizer tokenizer = new JsonStreamTokenizer();
+
+    /** Feed the bytes in chunks of the given size, and collect the values found. */
+    private List<String> tokenize(String stream, int chunkSize) throws ParseException {
+        ByteBuffer source = ByteBuffer.wrap(stream.getBytes(UTF_8));
+        List<String> values = new ArrayList<>();
+        while (source.hasRemaining()) {
+            tokenizer.feed(source, Math.min(chunkSize, source.remaining()));
+            while (tokenizer.next()) {
+                values.add(value());
+            }
+        }
+        return values;
+    }
+
+    private String value() {
+        return new String(tokenizer.array(), tokenizer.valueOffset(), tokenizer.valueLength(), UTF_8);
+    }
+
+    public void testSplitAtEveryByte() throws ParseException {
+        int length = MESSAGE.getBytes(UTF_8).length;
+        for (int split = 1; split < length; split++) {
+            ByteBuffer source = ByteBuffer.wrap(MESSAGE.getBytes(UTF_8));
+            JsonStreamTokenizer tokenizer = new JsonStreamTokenizer();
+
+            tokenizer.feed(source, split);
+            assertFalse("Split at " + split, tokenizer.next());
+            tokenizer.feed(source, source.remaining());
+            assertTrue("Split at " + split, tokenizer.next());
+            assertEquals(MESSAGE, new String(tokenizer.array(), tokenizer.valueOffset(), tokenizer.valueLength(), UTF_8));
+            assertFalse(tokenizer.next());
+        }
+    }
+
+    public void testOneByteAtATime() throws ParseException {
+        List<String> values = tokenize(MESSAGE, 1);
+
+        assertEquals(1, values.size());
+        assertEquals(MESSAGE, values.get(0));
+    }
+
+    public void testEscapedQuotesAndBracesInStrings() throws ParseException {
+        String value = "{\"text\":\"a \\\"quoted\\\" } ] { [ text\",\"path\":\"C:\\\\\",\"end\":\"}\"}";
+        List<String> values = tokenize(value + value, 3);
+
+        assertEquals(2, values.size());
+        assertEquals(value, values.get(0));
+        assertEquals(value, values.get(1));
+    }
+
+    public void testSeveralValuesInOneFeed() throws ParseException {
+        List<String> values = tokenize(" {\"a\":1}\r\n[2,[3]]\t{\"b\":{}} ", 1024);
+
+        assertEquals(3, values.size());
+        assertEquals("{\"a\":1}", values.get(0));
+        assertEquals("[2,[3]]", values.get(1));
+        assertEquals("{\"b\":{}}", values.get(2));
+    }
+
+    public void testCompactAfterPartialValue() throws ParseException {
+        ByteBuffer source = ByteBuffer.wrap("{\"a\":1} {\"b\":".getBytes(UTF_8));
+        tokenizer.feed(source, source.remaining());
+        assertTrue(tokenizer.next());
+        assertEquals("{\"a\":1}", value());
+
+        // The partial value is moved to the start of the buffer
+        assertFalse(tokenizer.next());
+        tokenizer.feed(ByteBuffer.wrap("\"}\"}".getBytes(UTF_8)), 4);
+        assertTrue(tokenizer.next());
+        assertEquals(0, tokenizer.valueOffset());
+        assertEquals("{\"b\":\"}\"}", value());
+    }
+
+    public void testReset() throws ParseException {
+        ByteBuffer source = ByteBuffer.wrap("{\"a\":\"unterminated".getBytes(UTF_8));
+        tokenizer.feed(source, source.remaining());
+        assertFalse(tokenizer.next());
+
+        tokenizer.reset();
+        assertEquals(1, tokenize("{\"b\":2}", 1024).size());
+    }
+
+    public void testJunkBetweenValues() {
+        try {
+            tokenize("{} x {}", 1024);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(3, e.getErrorOffset());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+public class PageSizerTest extends TestCase {
+    private static final String COMMAND = "browselibrary items";
+
+    private final PageSizer pageSizer = new PageSizer(50);
+
+    public void testDefault() {
+        assertEquals(50, pageSizer.getPageSize(COMMAND));
+        assertTrue("First page is smaller", pageSizer.getFirstPageSize(COMMAND) < 50);
+        assertTrue(pageSizer.getFirstPageSize(COMMAND) >= PageSizer.MIN_PAGE_SIZE);
+    }
+
+    public void testUnknownSize() {
+        pageSizer.update(COMMAND, 10, -1, 50);
+        assertEquals(50, pageSizer.getPageSize(COMMAND));
+    }
+
+    public void testFastConnection() {
+        // 50 items of 500 bytes in 20 ms
+        for (int i = 0; i < 10; i++) {
+            pageSizer.update(COMMAND, 20, 25_000, 50);
+        }
+        assertEquals(PageSizer.MAX_PAGE_SIZE, pageSizer.getPageSize(COMMAND));
+        assertTrue(pageSizer.getFirstPageSize(COMMAND) > 50);
+    }
+
+    public void testSlowConnection() {
+        // 50 items of 500 bytes in 1500 ms
+        for (int i = 0; i < 10; i++) {
+            pageSizer.update(COMMAND, 1500, 25_000, 50);
+        }
+        int pageSize = pageSizer.getPageSize(COMMAND);
+        assertTrue("Was " + pageSize, pageSize < 50);
+        assertEquals(PageSizer.MIN_PAGE_SIZE, pageSizer.getFirstPageSize(COMMAND));
+    }
+
+    public void testRemoteServer() {
+        // A fast transfer, but every request takes 300 ms
+        for (int i = 0; i < 10; i++) {
+            pageSizer.update(COMMAND, 300 + 50, 50_000, 100);
+            pageSizer.update(COMMAND, 300 + 10, 10_000, 20);
+        }
+        assertTrue(pageSizer.getPageSize(COMMAND) < PageSizer.MAX_PAGE_SIZE);
+        assertEquals(PageSizer.MIN_PAGE_SIZE, pageSizer.getFirstPageSize(COMMAND));
+    }
+
+    public void testCommandsAreSeparate() {
+        for (int i = 0; i < 10; i++) {
+            pageSizer.update(COMMAND, 20, 25_000, 50);
+        }
+        pageSizer.update("artworks", 20, 25_000, 5);
+        assertTrue(pageSizer.getPageSize("artworks") < pageSizer.getPageSize(COMMAND));
+    }
+}
@@ -0,0 +1,83 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import uk.org.ngo.squeezer.service.PendingChanges.Field;
+
+public class PendingChangesTest extends TestCase {
+    private final PendingChanges pendingChanges = new PendingChanges();
+
+    public void testNoChangeAcceptsAll() {
+        assertTrue(pendingChanges.accept(Field.PLAY_STATUS, "play", 1000));
+        assertTrue(pendingChanges.isEmpty());
+    }
+
+    public void testContradictingValueIsIgnored() {
+        pendingChanges.expect(Field.PLAY_STATUS, "pause", 1000);
+
+        assertFalse(pendingChanges.accept(Field.PLAY_STATUS, "play", 1500));
+        assertFalse(pendingChanges.isEmpty());
+    }
+
+    public void testAgreeingValueConfirmsChange() {
+        pendingChanges.expect(Field.PLAY_STATUS, "pause", 1000);
+
+        assertTrue(pendingChanges.accept(Field.PLAY_STATUS, "pause", 1200));
+        assertTrue(pendingChanges.isEmpty());
+        assertTrue(pendingChanges.accept(Field.PLAY_STATUS, "play", 1300));
+    }
+
+    public void testChangeTimesOut() {
+        pendingChanges.expect(Field.VOLUME, 50, 1000);
+
+        assertFalse(pendingChanges.accept(Field.VOLUME, 40, 1000 + PendingChanges.TIMEOUT - 1));
+        assertTrue(pendingChanges.accept(Field.VOLUME, 40, 1000 + PendingChanges.TIMEOUT));
+        assertTrue(pendingChanges.isEmpty());
+    }
+
+    public void testFieldsAreIndependent() {
+        pendingChanges.expect(Field.VOLUME, 50, 1000);
+
+        assertTrue(pendingChanges.accept(Field.POWER, 0, 1100));
+        assertFalse(pendingChanges.accept(Field.VOLUME, 40, 1100));
+    }
+
+    public void testLaterChangeReplacesEarlier() {
+        int first = pendingChanges.expect(Field.PLAY_STATUS, "pause", 1000);
+        int second = pendingChanges.expect(Field.PLAY_STATUS, "play", 1100);
+
+        assertTrue(second != first);
+        assertFalse("Replaced", pendingChanges.remove(first));
+        assertFalse(pendingChanges.accept(Field.PLAY_STATUS, "pause", 1200));
+        assertTrue(pendingChanges.accept(Field.PLAY_STATUS, "play", 1300));
+        assertFalse("Confirmed", pendingChanges.remove(second));
+    }
+
+    public void testAcknowledgedChangeAcceptsStatus() {
+        int id = pendingChanges.expect(Field.PLAY_STATUS, "play", 1000);
+        pendingChanges.acknowledge(id);
+
+        // The server handled the command, and the player is still stopped
+        assertTrue(pendingChanges.accept(Field.PLAY_STATUS, "stop", 1200));
+        assertTrue(pendingChanges.isEmpty());
+    }
+
+    public void testRemove() {
+        int id = pendingChanges.expect(Field.VOLUME, 50, 1000);
+        pendingChanges.expect(Field.POWER, 1, 1000);
+
+        assertTrue("Not settled", pendingChanges.remove(id));
+        assertFalse(pendingChanges.remove(id));
+        assertTrue(pendingChanges.accept(Field.VOLUME, 40, 1100));
+        assertFalse(pendingChanges.accept(Field.POWER, 0, 1100));
+    }
+
+    public void testSeekAllowsForPlayingTime() {
+        pendingChanges.expect(Field.TIME, 60.0, 1000);
+
+        assertFalse(pendingChanges.accept(Field.TIME, 10.0, 1500));
+        assertFalse(pendingChanges.isEmpty());
+        assertTrue(pendingChanges.accept(Field.TIME, 61.8, 1500));
+        assertTrue(pendingChanges.isEmpty());
+    }
+}
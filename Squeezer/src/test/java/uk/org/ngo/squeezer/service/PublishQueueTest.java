@@ -0,0 +1,198 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import uk.org.ngo.squeezer.service.PublishQueue.Priority;
+
+public class PublishQueueTest extends TestCase {
+    private long now;
+
+    private final PublishQueue<Item> queue = new PublishQueue<Item>(2) {
+        @Override
+        long now() {
+            return now;
+        }
+    };
+
+    public void testWindow() {
+        Item a = add(null), b = add(null), c = add(null);
+
+        assertSame(a, queue.poll());
+        assertSame(b, queue.poll());
+        assertNull("Window is full", queue.poll());
+        assertEquals(2, queue.inFlight());
+
+        assertTrue(queue.acknowledge(a));
+        assertFalse("Already acknowledged", queue.acknowledge(a));
+        assertSame(c, queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    public void testOrderingKey() {
+        Item a1 = add("a"), a2 = add("a"), b1 = add("b");
+
+        assertSame(a1, queue.poll());
+        assertSame("a2 must wait for a1", b1, queue.poll());
+        queue.acknowledge(b1);
+        assertNull(queue.poll());
+
+        queue.acknowledge(a1);
+        assertSame(a2, queue.poll());
+    }
+
+    public void testReset() {
+        Item a1 = add("a"), a2 = add("a"), a3 = add("a");
+
+        assertSame(a1, queue.poll());
+        queue.reset();
+        assertEquals(0, queue.inFlight());
+        assertSame(a2, queue.poll());
+        assertFalse("Forgotten by reset", queue.acknowledge(a1));
+        assertNull("a2 is still in flight", queue.poll());
+        queue.acknowledge(a2);
+        assertSame(a3, queue.poll());
+    }
+
+    public void testPriority() {
+        Item background = add(null, Priority.BACKGROUND);
+        Item visible = add(null, Priority.VISIBLE);
+        Item interactive = add(null, Priority.INTERACTIVE);
+
+        assertSame(interactive, queue.poll());
+        assertSame(visible, queue.poll());
+        queue.acknowledge(interactive);
+        queue.acknowledge(visible);
+        assertSame(background, queue.poll());
+        assertEquals(1, queue.getWaitStatistics(Priority.BACKGROUND).getCount());
+    }
+
+    public void testOrderingKeyAcrossPriorities() {
+        Item first = add("a", Priority.BACKGROUND);
+        Item second = add("a", Priority.INTERACTIVE);
+
+        assertSame("Must not overtake a message with the same key", first, queue.poll());
+        assertNull(queue.poll());
+        queue.acknowledge(first);
+        assertSame(second, queue.poll());
+    }
+
+    public void testAging() {
+        Item background = add(null, Priority.BACKGROUND);
+        now += 4 * PublishQueue.AGING_MILLIS;
+        Item interactive = add(null, Priority.INTERACTIVE);
+
+        assertSame("Waited long enough to overtake", background, queue.poll());
+        assertSame(interactive, queue.poll());
+        assertEquals(4 * PublishQueue.AGING_MILLIS, queue.getWaitStatistics(Priority.BACKGROUND).getMaxMillis());
+    }
+
+    public void testCoalescing() {
+        Item volume1 = add("player", "volume");
+        assertSame(volume1, queue.poll());
+
+        // volume1 is in flight, so these wait
+        Item volume2 = add("player", "volume");
+        Item volume3 = new Item("player", Priority.INTERACTIVE, "volume");
+        assertSame(volume2, queue.add(volume3));
+        Item pause = add("player");
+        assertEquals(2, queue.size());
+
+        queue.acknowledge(volume1);
+        assertSame("Takes the place of volume2", volume3, queue.poll());
+        queue.acknowledge(volume3);
+        assertSame(pause, queue.poll());
+    }
+
+    public void testCoalescingKeepsOrder() {
+        Item busy = add("player");
+        assertSame(busy, queue.poll());
+
+        // mixer volume 30, mixer volume +5, mixer volume 50 must end at 50, not 55
+        Item volume30 = add("player", "volume");
+        Item relative = add("player");
+        Item volume50 = new Item("player", Priority.INTERACTIVE, "volume");
+        assertSame(volume30, queue.add(volume50));
+        assertEquals(2, queue.size());
+
+        queue.acknowledge(busy);
+        assertSame("The superseded value is dropped", relative, queue.poll());
+        queue.acknowledge(relative);
+        assertSame("The new value doesn't overtake the relative change", volume50, queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    public void testRemoveIf() {
+        Item a1 = add("a"), a2 = add("a"), a3 = add("a");
+        Item volume = add("player", "volume");
+
+        assertSame(a1, queue.poll());
+        assertEquals(2, queue.removeIf(item -> item == a2 || item == volume));
+        assertEquals(1, queue.size());
+        assertEquals("Only waiting messages are removed", 0, queue.removeIf(item -> item == a1));
+
+        queue.acknowledge(a1);
+        assertSame("a3 is next in line", a3, queue.poll());
+        assertNull("Volume is no longer waiting", queue.add(new Item("player", Priority.INTERACTIVE, "volume")));
+    }
+
+    public void testExpiredInFlightFreesSlot() {
+        Item lost = add("a"), b = add(null), a2 = add("a"), c = add(null);
+
+        assertSame(lost, queue.poll());
+        assertSame(b, queue.poll());
+        assertNull("Window is full", queue.poll());
+
+        // The acknowledgement of lost never comes, its request expires
+        assertEquals(1, queue.acknowledgeIf(item -> item == lost));
+        assertEquals(1, queue.inFlight());
+        assertSame("The ordering key is released too", a2, queue.poll());
+
+        assertFalse("A late acknowledgement is ignored", queue.acknowledge(lost));
+        assertNull("a2 still holds its slot", queue.poll());
+        queue.acknowledge(b);
+        assertSame(c, queue.poll());
+    }
+
+    private Item add(String key) {
+        return add(key, Priority.INTERACTIVE);
+    }
+
+    private Item add(String key, Priority priority) {
+        Item item = new Item(key, priority, null);
+        queue.add(item);
+        return item;
+    }
+
+    private Item add(String key, String coalescingKey) {
+        Item item = new Item(key, Priority.INTERACTIVE, coalescingKey);
+        assertNull(queue.add(item));
+        return item;
+    }
+
+    private static class Item implements PublishQueue.Item {
+        private final String key;
+        private final Priority priority;
+        private final String coalescingKey;
+
+        private Item(String key, Priority priority, String coalescingKey) {
+            this.key = key;
+            this.priority = priority;
+            this.coalescingKey = coalescingKey;
+        }
+
+        @Override
+        public String getCoalescingKey() {
+            return coalescingKey;
+        }
+
+        @Override
+        public String getOrderingKey() {
+            return key;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+    }
+}
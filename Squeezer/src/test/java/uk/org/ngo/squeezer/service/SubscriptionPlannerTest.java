@@ -0,0 +1,53 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+public class SubscriptionPlannerTest extends TestCase {
+    private enum Tier {NONE, INTERVAL, ON_CHANGE}
+
+    private final SubscriptionPlanner<Tier> planner = new SubscriptionPlanner<>();
+
+    public void testUpgradeIsImmediate() {
+        assertEquals(Tier.ON_CHANGE, planner.plan("a", Tier.NONE, Tier.ON_CHANGE, 1000));
+        assertEquals(Tier.INTERVAL, planner.plan("b", Tier.NONE, Tier.INTERVAL, 1000));
+        assertEquals(-1, planner.getNextPlan());
+    }
+
+    public void testSameTierIsKept() {
+        assertNull(planner.plan("a", Tier.INTERVAL, Tier.INTERVAL, 1000));
+    }
+
+    public void testDowngradeIsDelayed() {
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.NONE, 1000));
+        assertEquals(1000 + SubscriptionPlanner.DOWNGRADE_DELAY, planner.getNextPlan());
+
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.NONE, 1000 + SubscriptionPlanner.DOWNGRADE_DELAY - 1));
+        assertEquals(Tier.NONE, planner.plan("a", Tier.ON_CHANGE, Tier.NONE, 1000 + SubscriptionPlanner.DOWNGRADE_DELAY));
+        assertEquals(-1, planner.getNextPlan());
+    }
+
+    public void testDowngradeIsCancelledWhenNeededAgain() {
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.INTERVAL, 1000));
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.ON_CHANGE, 2000));
+        assertEquals(-1, planner.getNextPlan());
+
+        // The delay starts again
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.INTERVAL, 3000));
+        assertNull(planner.plan("a", Tier.ON_CHANGE, Tier.INTERVAL, 1000 + SubscriptionPlanner.DOWNGRADE_DELAY));
+        assertEquals(3000 + SubscriptionPlanner.DOWNGRADE_DELAY, planner.getNextPlan());
+    }
+
+    public void testNextPlanIsEarliestDowngrade() {
+        planner.plan("a", Tier.ON_CHANGE, Tier.NONE, 2000);
+        planner.plan("b", Tier.INTERVAL, Tier.NONE, 1000);
+
+        assertEquals(1000 + SubscriptionPlanner.DOWNGRADE_DELAY, planner.getNextPlan());
+    }
+
+    public void testClear() {
+        planner.plan("a", Tier.ON_CHANGE, Tier.NONE, 1000);
+        planner.clear();
+
+        assertEquals(-1, planner.getNextPlan());
+    }
+}
@@ -0,0 +1,50 @@
+package uk.org.ngo.squeezer.service;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class TimerWheelTest extends TestCase {
+    private final TimerWheel<String> wheel = new TimerWheel<>(100, 8);
+
+    public void testExpiry() {
+        wheel.advance(1000);
+        wheel.schedule("a", 1150);
+        wheel.schedule("b", 1200);
+        wheel.schedule("c", 1500);
+
+        assertEquals(Collections.emptyList(), wheel.advance(1100));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(wheel.advance(1250)));
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList("c"), wheel.advance(1500));
+        assertTrue(wheel.isEmpty());
+    }
+
+    public void testBeyondOneTurn() {
+        wheel.advance(0);
+        wheel.schedule("near", 100);
+        wheel.schedule("far", 900); // Same slot as "near"
+
+        assertEquals(Collections.singletonList("near"), wheel.advance(100));
+        assertEquals(Collections.emptyList(), wheel.advance(800));
+        assertEquals(Collections.singletonList("far"), wheel.advance(900));
+    }
+
+    public void testLateAdvance() {
+        wheel.advance(0);
+        wheel.schedule("a", 300);
+        wheel.schedule("b", 2000);
+
+        assertEquals(Collections.singletonList("a"), wheel.advance(1500));
+        assertEquals(Collections.singletonList("b"), wheel.advance(5000));
+    }
+
+    public void testPastDeadline() {
+        wheel.advance(1000);
+        wheel.schedule("a", 500);
+
+        assertEquals(Collections.singletonList("a"), wheel.advance(1100));
+    }
+}